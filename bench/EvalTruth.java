@@ -0,0 +1,117 @@
+/*
+ * Scores containment calls against the true read origins written by sim/SimulateReadsFromGenome
+ *
+ * A read is truly contained if another read covers its whole interval of the genome, breaking ties
+ * between reads with the same interval by name order.  Reads missing from the uncontained list are
+ * taken as called contained.  With a PB_FilterContainedReads debug file, it also reports the mean
+ * best-container score of true containments, split by whether the container is on the same strand.
+ *
+ * usage: java -cp <classdir> EvalTruth <intervals file> <uncontained names> [containment debug file]
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+public class EvalTruth {
+
+	/*
+	 * A read's name, interval of the genome, and whether it was reverse complemented
+	 */
+	static class Origin
+	{
+		String name;
+		long a, b;
+		boolean rev;
+		
+		// Whether some other read on the same or the opposite strand contains this one
+		boolean same, opposite;
+		
+		Origin(String line)
+		{
+			String[] f = line.trim().split("\\s+");
+			name = f[0];
+			a = Long.parseLong(f[1]);
+			b = Long.parseLong(f[2]);
+			rev = f.length > 3 && f[3].equals("1");
+		}
+		
+		boolean contains(Origin o)
+		{
+			return this != o && a <= o.a && o.b <= b && (b - a > o.b - o.a || name.compareTo(o.name) < 0);
+		}
+	}
+
+public static void main(String[] args) throws IOException
+{
+	if(args.length < 2)
+	{
+		System.out.println("usage: java EvalTruth <intervals file> <uncontained names> [containment debug file]");
+		return;
+	}
+	HashMap<String, Origin> truth = new HashMap<String, Origin>();
+	ArrayList<Origin> reads = new ArrayList<Origin>();
+	for(String line : Files.readAllLines(Paths.get(args[0])))
+	{
+		if(line.trim().length() == 0) continue;
+		Origin o = new Origin(line);
+		truth.put(o.name, o);
+		reads.add(o);
+	}
+
+	// Only reads starting at or before a read can contain it
+	reads.sort((x, y) -> Long.compare(x.a, y.a));
+	for(int i = 0; i<reads.size(); i++)
+	{
+		Origin o = reads.get(i);
+		for(int j = 0; j<reads.size() && reads.get(j).a <= o.a; j++)
+		{
+			Origin c = reads.get(j);
+			if(!c.contains(o)) continue;
+			if(c.rev == o.rev) o.same = true;
+			else o.opposite = true;
+		}
+	}
+
+	HashSet<String> uncontained = new HashSet<String>();
+	for(String line : Files.readAllLines(Paths.get(args[1])))
+	{
+		if(line.trim().length() > 0) uncontained.add(line.trim().split("\\s+")[0]);
+	}
+	int tp = 0, fp = 0, fn = 0, foundOpposite = 0, onlyOpposite = 0;
+	for(Origin o : reads)
+	{
+		boolean contained = o.same || o.opposite;
+		boolean called = !uncontained.contains(o.name);
+		if(contained && called) tp++;
+		else if(called) fp++;
+		else if(contained) fn++;
+		if(o.opposite && !o.same)
+		{
+			onlyOpposite++;
+			if(called) foundOpposite++;
+		}
+	}
+	System.out.printf("truly contained %d: called contained tp=%d fp=%d fn=%d; only opposite-strand containers found %d/%d\n",
+		tp + fn, tp, fp, fn, foundOpposite, onlyOpposite);
+
+	if(args.length > 2)
+	{
+		// Debug lines are the name, length, scores, and the best container if there is one
+		double[] sums = new double[2];
+		int[] counts = new int[2];
+		for(String line : Files.readAllLines(Paths.get(args[2])))
+		{
+			String[] f = line.trim().split("\\s+");
+			Origin o = truth.get(f[0]), c = truth.get(f[f.length - 1]);
+			if(o == null || c == null || f.length < 4 || !(o.same || o.opposite)) continue;
+			if(c.a <= o.a && o.b <= c.b)
+			{
+				int strand = c.rev == o.rev ? 0 : 1;
+				sums[strand] += Double.parseDouble(f[2]);
+				counts[strand]++;
+			}
+		}
+		System.out.printf("mean best-container score: same strand %.3f (%d), opposite strand %.3f (%d)\n",
+			sums[0] / Math.max(1, counts[0]), counts[0], sums[1] / Math.max(1, counts[1]), counts[1]);
+	}
+}
+}
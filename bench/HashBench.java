@@ -0,0 +1,91 @@
+/*
+ * Times the batch kmer hashers, reporting which one the sketching code loaded
+ *
+ * Run with --add-modules jdk.incubator.vector and the vector hasher compiled to compare the two.
+ * Given a vector size in bits (64, 128, 256, or 512), the vector hasher is timed with that shape
+ * instead of the preferred one.  Each shape should be timed in its own JVM, as the shared loop is
+ * compiled for whichever shapes have run.  The SIMD flags of the CPU are printed as well, since
+ * which shapes are fast depends on them.
+ *
+ * usage: java -cp <classdir> HashBench [passes] [bits]
+ */
+import java.io.*;
+import java.nio.file.*;
+public class HashBench {
+
+public static void main(String[] args) throws Exception
+{
+	int passes = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+	System.out.println("CPU SIMD flags: " + simdFlags());
+	System.out.println("Loaded hasher: " + (BatchHasher.INSTANCE instanceof BatchHasher.Scalar ? "scalar" : BatchHasher.INSTANCE));
+	long[] kmers = new long[MinimizerSketcher.CHUNK];
+	for(int i = 0; i<kmers.length; i++) kmers[i] = i * 0x9E3779B97F4A7C15L;
+	System.out.printf("scalar: %.3f ns/kmer\n", time(new BatchHasher.Scalar(), kmers, passes));
+	if(BatchHasher.INSTANCE instanceof BatchHasher.Scalar)
+	{
+		return;
+	}
+	if(args.length > 1)
+	{
+		BatchHasher hasher = (BatchHasher)Class.forName("VectorBatchHasher").getMethod("withBits", int.class).invoke(null, Integer.parseInt(args[1]));
+		System.out.printf("%s: %.3f ns/kmer\n", hasher, time(hasher, kmers, passes));
+	}
+	else
+	{
+		System.out.printf("%s: %.3f ns/kmer\n", BatchHasher.INSTANCE, time(BatchHasher.INSTANCE, kmers, passes));
+	}
+}
+
+/*
+ * The x86 SSE/AVX or ARM ASIMD/SVE flags listed in /proc/cpuinfo, or "unknown" if it can't be read
+ */
+static String simdFlags()
+{
+	try
+	{
+		for(String line : Files.readAllLines(Paths.get("/proc/cpuinfo")))
+		{
+			if(!line.startsWith("flags") && !line.startsWith("Features")) continue;
+			StringBuilder res = new StringBuilder();
+			for(String flag : line.substring(line.indexOf(':') + 1).trim().split("\\s+"))
+			{
+				if(flag.matches("(sse|ssse|avx|asimd|sve|fma).*"))
+				{
+					res.append(res.length() == 0 ? "" : " ").append(flag);
+				}
+			}
+			return res.toString();
+		}
+	}
+	catch(IOException e)
+	{
+	}
+	return "unknown";
+}
+
+/*
+ * Collects the results of every pass
+ */
+static volatile long sink;
+
+/*
+ * The fastest time per kmer of several passes, each hashing the same chunk many times
+ */
+static double time(BatchHasher hasher, long[] kmers, int passes)
+{
+	int repeats = 20000;
+	long[] hashes = new long[kmers.length];
+	long best = Long.MAX_VALUE;
+	for(int pass = 0; pass<passes; pass++)
+	{
+		long start = System.nanoTime();
+		for(int i = 0; i<repeats; i++)
+		{
+			hasher.hash(kmers, hashes, kmers.length, PB_FilterContainedReads.HASH_MASK);
+			sink += hashes[i % kmers.length];
+		}
+		best = Math.min(best, System.nanoTime() - start);
+	}
+	return best * 1.0 / ((long)repeats * kmers.length);
+}
+}
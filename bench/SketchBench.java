@@ -0,0 +1,89 @@
+/*
+ * Times the sketching code on the reads of a fasta or fastq file on one thread, reporting the best
+ * of several passes over every read
+ *
+ * usage: java -cp <classdir> SketchBench <reads> [passes]
+ */
+import java.util.*;
+public class SketchBench {
+public static void main(String[] args) throws Exception
+{
+	if(args.length == 0)
+	{
+		System.out.println("usage: java -cp <classdir> SketchBench <reads> [passes]");
+		return;
+	}
+	int passes = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+	ArrayList<PackedSequence> seqs = new ArrayList<PackedSequence>();
+	FastxReader reader = new FastxReader(args[0]);
+	while(reader.next()) seqs.add(new PackedSequence(reader.seq, reader.seqLen));
+	reader.close();
+	System.out.println("Read " + seqs.size() + " sequences from " + args[0]);
+
+	// The original TreeMap sketch against MinimizerSketcher, for (K, W, endThreshold)
+	MinimizerSketcher sketcher = new MinimizerSketcher();
+	int[][] params = {{12, 5, 500}, {12, 1, 100}, {18, 50, 500}, {31, 10, 300}, {18, 200, 500}};
+	for(int[] p : params)
+	{
+		long reference = time(passes, () -> {
+			long res = 0;
+			for(PackedSequence s : seqs) res += ReferenceSketch.getWindowMinimizers(s, p[0], p[1], p[2])[0].length;
+			return res;
+		});
+		long current = time(passes, () -> {
+			long res = 0;
+			for(PackedSequence s : seqs) res += sketcher.sketch(s, p[0], p[1], p[2])[0].length;
+			return res;
+		});
+		System.out.println("window " + Arrays.toString(p) + ": reference " + reference + " ms, sketcher " + current + " ms");
+	}
+
+	// Three separate sketches against the single pass of sketchRead at the default parameters
+	int K1 = PB_FilterContainedReads.K1, W1 = PB_FilterContainedReads.W1;
+	int K2 = PB_FilterContainedReads.K2, W2 = PB_FilterContainedReads.W2;
+	long separate = time(passes, () -> {
+		long res = 0;
+		for(PackedSequence s : seqs)
+		{
+			res += sketcher.sketch(s, K1, W1, 500)[0].length;
+			res += sketcher.sketch(s, K1, 1, 100)[1].length;
+			res += sketcher.sketch(s, K2, W2, 0)[0].length;
+		}
+		return res;
+	});
+	long fused = time(passes, () -> {
+		long res = 0;
+		for(PackedSequence s : seqs) res += sketcher.sketchRead(s, K1, W1, 0, 500, 100, K2, W2, false, null)[0].length;
+		return res;
+	});
+	System.out.println("read sketches: separate " + separate + " ms, sketchRead " + fused + " ms");
+}
+
+/*
+ * A pass over the sequences, returning a value depending on its results so it can't be skipped
+ */
+interface Pass
+{
+	long run();
+}
+
+/*
+ * Collects the results of every pass
+ */
+static volatile long sink;
+
+/*
+ * The fastest of several runs of a pass, in milliseconds
+ */
+static long time(int passes, Pass pass)
+{
+	long best = Long.MAX_VALUE;
+	for(int i = 0; i<passes; i++)
+	{
+		long start = System.nanoTime();
+		sink += pass.run();
+		best = Math.min(best, System.nanoTime() - start);
+	}
+	return best / 1000000;
+}
+}
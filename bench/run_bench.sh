@@ -0,0 +1,33 @@
+#!/bin/bash
+# Compiles the sources with the reference sketch from checks/ and runs the sketching benchmarks
+# on a fasta or fastq file, along with the hasher benchmark.  The vector hasher is compiled and
+# used as well when the jdk.incubator.vector module is available, and is then also timed with each
+# vector shape, each in its own JVM.
+#
+# usage: bench/run_bench.sh <reads> [passes]
+set -e
+if [ $# -lt 1 ]
+then
+	echo "usage: bench/run_bench.sh <reads> [passes]"
+	exit 1
+fi
+reads=$(readlink -f "$1")
+passes=${2:-3}
+cd "$(dirname "$0")/.."
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -nowarn -d "$classes" src/*.java checks/ReferenceSketch.java bench/*.java
+vector=""
+if javac -nowarn --add-modules jdk.incubator.vector -cp "$classes" -d "$classes" src/vector/VectorBatchHasher.java 2>/dev/null
+then
+	vector="--add-modules jdk.incubator.vector"
+fi
+java $vector -cp "$classes" HashBench "$passes" 2>/dev/null
+if [ -n "$vector" ]
+then
+	for bits in 64 128 256 512
+	do
+		java $vector -cp "$classes" HashBench "$passes" $bits 2>/dev/null | tail -n 1
+	done
+fi
+java $vector -cp "$classes" SketchBench "$reads" "$passes" 2>/dev/null
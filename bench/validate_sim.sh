@@ -0,0 +1,49 @@
+#!/bin/bash
+# Simulates reads with known origins using sim/SimulateReadsFromGenome and scores
+# PB_FilterContainedReads against them, once with the default settings and once with the given
+# extra arguments.  Without a genome, a 150 kb random one with six copies of a 3 kb repeat is used.
+# Half of the reads are reverse complemented so that containers on the opposite strand are tested.
+#
+# usage: bench/validate_sim.sh [genome.fa] [PB_FilterContainedReads arguments, e.g. dt=2000]
+set -e
+cd "$(dirname "$0")/.."
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+genome="$work/genome.fa"
+if [ $# -gt 0 ] && [ -f "$1" ]
+then
+	genome=$(readlink -f "$1")
+	shift
+else
+	awk 'BEGIN {
+		srand(7)
+		split("A C G T", b, " ")
+		for(i = 0; i<3000; i++) repeat = repeat b[int(rand() * 4) + 1]
+		printf ">genome\n"
+		for(i = 0; i<150000; i++)
+		{
+			if(i == 50000) for(j = 0; j<6; j++) printf "%s", repeat
+			printf "%s", b[int(rand() * 4) + 1]
+		}
+		printf "\n"
+	}' > "$genome"
+fi
+javac -nowarn -d "$work/classes" src/*.java bench/EvalTruth.java
+length=$(grep -v '>' "$genome" | tr -d ' \n\r' | wc -c)
+math=$(readlink -f sim/commons-math3-3.6.1.jar)
+javac -nowarn -cp "$math" -d "$work/sim" sim/SimulateReadsFromGenome.java
+(cd "$work" && java -cp "sim:$math" SimulateReadsFromGenome genomefile="$genome" readfile=reads.fa \
+	intervalfile=intervals.txt maxlength=$length mean=3000 stdev=1000 coverage=40 error=0.08 revcomp=0.5 > sim.log 2>&1)
+run()
+{
+	label=$1
+	shift
+	(cd "$work" && java -cp classes PB_FilterContainedReads reads.fa nt=2 ct=0.5 logging ofn=$label.txt dfn=$label.debug.txt "$@" > $label.log 2>&1)
+	echo "== $label${*:+ $*}"
+	java -cp "$work/classes" EvalTruth "$work/intervals.txt" "$work/$label.txt" "$work/$label.debug.txt"
+}
+run default
+if [ $# -gt 0 ]
+then
+	run variant "$@"
+fi
@@ -0,0 +1,90 @@
+/*
+ * Checks that PB_FilterContainedReads rejects out-of-range sketch parameters
+ */
+import java.util.Random;
+public class ArgsCheck {
+public static void main(String[] args)
+{
+	check(valid(), "the defaults are rejected");
+
+	PB_FilterContainedReads.setS1 = true;
+	for(int s1 : new int[] {1, 7, PB_FilterContainedReads.K1})
+	{
+		PB_FilterContainedReads.S1 = s1;
+		check(valid(), "s1=" + s1 + " is rejected");
+	}
+	for(int s1 : new int[] {-1, 0, PB_FilterContainedReads.K1 + 1})
+	{
+		PB_FilterContainedReads.S1 = s1;
+		check(!valid(), "s1=" + s1 + " is accepted");
+	}
+	PB_FilterContainedReads.setS1 = false;
+	PB_FilterContainedReads.S1 = 0;
+
+	int k1 = PB_FilterContainedReads.K1;
+	for(int k : new int[] {1, KmerCounts.MAX_K})
+	{
+		PB_FilterContainedReads.K1 = k;
+		check(valid(), "k1=" + k + " is rejected");
+	}
+	for(int k : new int[] {0, KmerCounts.MAX_K + 1, 31, 32})
+	{
+		PB_FilterContainedReads.K1 = k;
+		check(!valid(), "k1=" + k + " is accepted");
+	}
+	PB_FilterContainedReads.K1 = k1;
+
+	int hhw = PB_FilterContainedReads.HH_WIDTH_BITS;
+	for(int w : new int[] {1, 28})
+	{
+		PB_FilterContainedReads.HH_WIDTH_BITS = w;
+		check(valid(), "hhw=" + w + " is rejected");
+	}
+	for(int w : new int[] {0, -1, 29, 31, 64})
+	{
+		PB_FilterContainedReads.HH_WIDTH_BITS = w;
+		check(!valid(), "hhw=" + w + " is accepted");
+	}
+	PB_FilterContainedReads.HH_WIDTH_BITS = hhw;
+	checkLongestKmer();
+	System.out.println("OK");
+}
+
+/*
+ * Checks that counts are exact up to 255 at the longest allowed kmer, and that a read made of
+ * one short sequence repeated many times is still found to be a repeat
+ */
+static void checkLongestKmer()
+{
+	int k = KmerCounts.MAX_K;
+	long kmer = (1L << (2*k)) - 1;
+	check(KmerCounts.kmer(KmerCounts.pack(kmer, 255, k), k) == kmer, "the longest kmer is not kept");
+	check(KmerCounts.count(KmerCounts.pack(kmer, 255, k), k) == 255, "a count of 255 is not kept");
+
+	Random rand = new Random(6);
+	byte[] unit = new byte[100];
+	for(int i = 0; i<unit.length; i++) unit[i] = "ACGT".getBytes()[rand.nextInt(4)];
+	byte[] seq = new byte[unit.length * 40];
+	for(int i = 0; i<seq.length; i++) seq[i] = unit[i % unit.length];
+	int k1 = PB_FilterContainedReads.K1;
+	PB_FilterContainedReads.K1 = k;
+	PB_FilterContainedReads.Read r = new PB_FilterContainedReads.Read("repeat", new PackedSequence(seq, seq.length));
+	r.init();
+	PB_FilterContainedReads.K1 = k1;
+	check(r.repeats, "a tandem repeat is not flagged with k1=" + k);
+}
+
+static boolean valid()
+{
+	return PB_FilterContainedReads.argumentError() == null;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
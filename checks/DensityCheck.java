@@ -0,0 +1,75 @@
+/*
+ * Checks containment against a long container whose candidate sketch is down-sampled with dt=:
+ * reads lying inside it must still be contained, and reads with a novel overhang must not be
+ */
+import java.util.*;
+public class DensityCheck {
+public static void main(String[] args)
+{
+	Random rand = new Random(8);
+	byte[] genome = randomBases(rand, 300000);
+	PB_FilterContainedReads.DENSITY_THRESHOLD = 2000;
+
+	// Otherwise the rectangle method counts every read under the length filter as contained
+	PB_FilterContainedReads.LENGTH_FILTER = 0;
+	PB_FilterContainedReads.Read container = read("container", genome);
+	int expected = genome.length / PB_FilterContainedReads.DENSITY_THRESHOLD * PB_FilterContainedReads.WINDOW_CANDIDATES;
+	check(container.ms2.length > expected / 2 && container.ms2.length < expected * 2,
+		"the container kept " + container.ms2.length + " candidate kmers instead of about " + expected);
+
+	PB_FilterContainedReads.FilterMethod[] methods = PB_FilterContainedReads.FilterMethod.values();
+	for(int i = 0; i<20; i++)
+	{
+		// A 7.5 kb read from inside the container, and one with 1.5 kb of novel sequence at one end
+		int start = rand.nextInt(genome.length - 7500);
+		byte[] inside = mutate(rand, Arrays.copyOfRange(genome, start, start + 7500));
+		byte[] overhang = mutate(rand, Arrays.copyOfRange(genome, start, start + 6000));
+		byte[] novel = randomBases(rand, 1500);
+		byte[] joined = new byte[7500];
+		boolean atStart = i % 2 == 0;
+		System.arraycopy(atStart ? novel : overhang, 0, joined, 0, atStart ? 1500 : 6000);
+		System.arraycopy(atStart ? overhang : novel, 0, joined, atStart ? 1500 : 6000, atStart ? 6000 : 1500);
+		PB_FilterContainedReads.Read in = read("inside" + i, inside), out = read("overhang" + i, joined);
+		for(PB_FilterContainedReads.FilterMethod method : methods)
+		{
+			PB_FilterContainedReads.method = method;
+			check(container.contains(in, new ArrayList<Double>()), method + ": read " + i + " inside the container is not contained");
+			check(!container.contains(out, new ArrayList<Double>()), method + ": read " + i + " with a novel "
+				+ (atStart ? "start" : "end") + " is contained");
+		}
+	}
+	System.out.println("OK");
+}
+
+static PB_FilterContainedReads.Read read(String name, byte[] bases)
+{
+	PB_FilterContainedReads.Read r = new PB_FilterContainedReads.Read(name, new PackedSequence(bases, bases.length));
+	r.init();
+	return r;
+}
+
+static byte[] randomBases(Random rand, int length)
+{
+	byte[] res = new byte[length];
+	for(int i = 0; i<length; i++) res[i] = "ACGT".getBytes()[rand.nextInt(4)];
+	return res;
+}
+
+/*
+ * Substitutes 2% of the bases
+ */
+static byte[] mutate(Random rand, byte[] bases)
+{
+	for(int i = 0; i<bases.length; i++) if(rand.nextInt(50) == 0) bases[i] = "ACGT".getBytes()[rand.nextInt(4)];
+	return bases;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
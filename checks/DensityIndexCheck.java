@@ -0,0 +1,62 @@
+/*
+ * Runs the whole filter with dt= on a long container and reads from inside it, so that the reads
+ * have to be found through the down-sampled candidate index and not only scored against it.  Every
+ * read must get a candidate and be contained, including one long enough that its whole-read score
+ * against the container is computed from a sample of its kmers.
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+public class DensityIndexCheck {
+public static void main(String[] args) throws Exception
+{
+	Random rand = new Random(9);
+	byte[] genome = DensityCheck.randomBases(rand, 300000);
+	File dir = Files.createTempDirectory("density").toFile();
+	File fasta = new File(dir, "reads.fa"), out = new File(dir, "uncontained.txt"), debug = new File(dir, "debug.txt");
+	PrintWriter reads = new PrintWriter(fasta);
+	reads.println(">container");
+	reads.println(new String(genome));
+	for(int i = 0; i<30; i++)
+	{
+		int length = i == 0 ? 60000 : 7500;
+		int start = rand.nextInt(genome.length - length);
+		reads.println(">inside" + i);
+		reads.println(new String(DensityCheck.mutate(rand, Arrays.copyOfRange(genome, start, start + length))));
+	}
+	reads.close();
+
+	// Without logging, process() fails on any candidate which doesn't contain the read.  Logging also
+	// writes debug.txt to the working directory, which is removed unless it was already there.
+	boolean hadLog = new File("debug.txt").exists();
+	PB_FilterContainedReads.main(new String[] {fasta.getPath(), "dt=2000", "nt=1", "logging", "ofn=" + out.getPath(), "dfn=" + debug.getPath()});
+	List<String> kept = Files.readAllLines(out.toPath());
+	List<String> lines = Files.readAllLines(debug.toPath());
+	for(File f : dir.listFiles()) f.delete();
+	dir.delete();
+	if(!hadLog) new File("debug.txt").delete();
+
+	check(kept.equals(Arrays.asList("container")), "kept " + kept);
+	for(String line : lines)
+	{
+		// The name, length, scores, and the best candidate if any was found
+		String[] f = line.split(" ");
+		if(f[0].equals("container")) continue;
+		check(f[f.length - 1].startsWith("container") || f[f.length - 1].startsWith("inside"), f[0] + " got no candidate from the index");
+		if(f[0].equals("inside0"))
+		{
+			check(f[f.length - 1].equals("container") && Double.parseDouble(f[2]) > 0.5, "sampled whole-read score of inside0: " + line);
+		}
+	}
+	System.out.println("OK");
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
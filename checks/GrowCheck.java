@@ -0,0 +1,38 @@
+/*
+ * Checks that FastxReader.grow makes room for what is needed and refuses lengths past the largest
+ * array, including ones which doubling an int would overflow on, instead of looping forever
+ */
+import java.io.*;
+public class GrowCheck {
+public static void main(String[] args) throws Exception
+{
+	byte[] a = {1, 2, 3};
+	byte[] b = FastxReader.grow(a, 7);
+	check(b.length >= 7 && b[0] == 1 && b[2] == 3, "grow to 7 bytes gave length " + b.length);
+	check(FastxReader.grow(new byte[0], 5).length >= 5, "grow from an empty array");
+
+	for(long needed : new long[] {FastxReader.MAX_ARRAY_LENGTH + 1L, (1L << 31) + 10, Integer.MAX_VALUE + (long)Integer.MAX_VALUE})
+	{
+		boolean thrown = false;
+		try
+		{
+			FastxReader.grow(new byte[1 << 16], needed);
+		}
+		catch(IOException e)
+		{
+			thrown = true;
+		}
+		check(thrown, "no IOException when growing to " + needed + " bytes");
+	}
+	System.out.println("OK");
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
@@ -0,0 +1,54 @@
+/*
+ * Checks that a read whose end sketch is entirely masked as low quality with minq= is not contained,
+ * since nothing is known about that end, while a read with a masked stretch in its middle still is
+ */
+import java.util.*;
+public class MaskedEndCheck {
+public static void main(String[] args)
+{
+	Random rand = new Random(9);
+	byte[] genome = DensityCheck.randomBases(rand, 20000);
+	PB_FilterContainedReads.MIN_QUALITY = 10;
+	PB_FilterContainedReads.LENGTH_FILTER = 0;
+	PB_FilterContainedReads.Read container = read("container", genome, null);
+
+	for(int i = 0; i<10; i++)
+	{
+		// A 5 kb read from inside the container, followed by a novel low-quality tail
+		int start = rand.nextInt(genome.length - 5000);
+		byte[] inside = DensityCheck.mutate(rand, Arrays.copyOfRange(genome, start, start + 5000));
+		int tail = i % 2 == 0 ? 600 : 1000;
+		byte[] joined = Arrays.copyOf(inside, inside.length + tail);
+		System.arraycopy(DensityCheck.randomBases(rand, tail), 0, joined, inside.length, tail);
+		PB_FilterContainedReads.Read maskedEnd = read("tail" + i, joined, new int[] {inside.length, joined.length});
+		PB_FilterContainedReads.Read maskedMiddle = read("middle" + i, inside, new int[] {2000, 2300});
+		for(PB_FilterContainedReads.FilterMethod method : PB_FilterContainedReads.FilterMethod.values())
+		{
+			PB_FilterContainedReads.method = method;
+			check(!container.contains(maskedEnd, new ArrayList<Double>()),
+				method + ": read " + i + " with a masked " + tail + " bp novel tail is contained");
+			check(container.contains(maskedMiddle, new ArrayList<Double>()), method + ": read " + i + " masked in the middle is not contained");
+		}
+	}
+	check(PB_FilterContainedReads.Read.compareErrorKmers(new long[0], container.ms, PB_FilterContainedReads.K1) == 0,
+		"an empty end sketch does not score 0");
+	System.out.println("OK");
+}
+
+static PB_FilterContainedReads.Read read(String name, byte[] bases, int[] lowQuality)
+{
+	PB_FilterContainedReads.Read r = new PB_FilterContainedReads.Read(name, new PackedSequence(bases, bases.length));
+	r.lowQuality = lowQuality;
+	r.init();
+	return r;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
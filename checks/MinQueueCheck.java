@@ -0,0 +1,78 @@
+/*
+ * Checks HashContainment.getMinimizers, which finds window minima with MinQueue, against a brute-force
+ * scan of every window on random sequences, with and without low-quality masking
+ */
+import java.util.*;
+public class MinQueueCheck {
+public static void main(String[] args)
+{
+	ArrayList<PackedSequence> seqs = SketchCheck.randomSequences(new Random(3));
+	Random rand = new Random(4);
+
+	// (K, FREQ_MINIMIZERS)
+	int[][] params = {{15, 6}, {20, 8}, {31, 4}, {12, 3}, {8, 1}, {10, 0}};
+	for(int[] p : params)
+	{
+		HashContainment.K = p[0];
+		HashContainment.FREQ_MINIMIZERS = p[1];
+		for(boolean masking : new boolean[] {false, true})
+		{
+			for(PackedSequence s : seqs)
+			{
+				int[] runs = masking ? SketchCheck.randomRuns(rand, s.length) : null;
+				long[] expected = bruteForce(s, SketchCheck.lowBases(runs, s.length));
+				check(Arrays.equals(expected, HashContainment.getMinimizers(s, runs)),
+					"getMinimizers " + Arrays.toString(p) + " masking=" + masking + " length " + s.length);
+			}
+		}
+	}
+	System.out.println("OK");
+}
+
+/*
+ * The distinct kmers with the earliest smallest hash among the last 2 * 2^FREQ_MINIMIZERS slots at
+ * each position, where masked kmers have the largest hash and windows of only masked kmers are skipped
+ */
+static long[] bruteForce(PackedSequence s, boolean[] low)
+{
+	int K = HashContainment.K, window = 1 << HashContainment.FREQ_MINIMIZERS;
+	ArrayList<long[]> slots = new ArrayList<long[]>();
+	TreeSet<Long> res = new TreeSet<Long>();
+	long[] ks = new long[2];
+	for(int i = 0; i<s.length; i++)
+	{
+		ks = ReferenceSketch.updateKmers(K, ks, s.get(i));
+		if(i < K - 1) continue;
+		boolean masked = ReferenceSketch.overlapsLow(low, i, K);
+		long m = i == K - 1 ? (1L<<50) - 1 : HashContainment.FREQ_MINIMIZERS;
+		for(long kmer : ks)
+		{
+			slots.add(new long[] {masked ? Long.MAX_VALUE : HashContainment.hash(kmer, m), kmer});
+		}
+		if(i == K - 1 || slots.size() <= 2*window) continue;
+		long best = Long.MAX_VALUE, bestKmer = 0;
+		for(int j = slots.size() - 2*window; j<slots.size(); j++)
+		{
+			if(slots.get(j)[0] < best)
+			{
+				best = slots.get(j)[0];
+				bestKmer = slots.get(j)[1];
+			}
+		}
+		if(best != Long.MAX_VALUE) res.add(bestKmer);
+	}
+	long[] arr = new long[res.size()];
+	int idx = 0;
+	for(long x : res) arr[idx++] = x;
+	return arr;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
@@ -0,0 +1,34 @@
+/*
+ * Checks that NameSet skips blank and whitespace-only lines, so they never match an empty name
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+public class NameSetCheck {
+public static void main(String[] args) throws Exception
+{
+	File f = File.createTempFile("names", ".txt");
+	f.deleteOnExit();
+	try(Writer out = new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.ISO_8859_1))
+	{
+		out.write("a\n\n  \t\r\nb\r\n\r\nc\n \n");
+	}
+	NameSet names = new NameSet(f.getPath());
+	check(names.size == 3, "expected 3 names but found " + names.size);
+	String[] expected = new String[] {"a", "b", "c"};
+	for(int i = 0; i<expected.length; i++)
+	{
+		byte[] name = expected[i].getBytes(StandardCharsets.ISO_8859_1);
+		check(names.indexOf(name, 0, name.length) == i, "wrong position for " + expected[i]);
+	}
+	check(names.indexOf(new byte[0], 0, 0) == -1, "an empty name was added");
+	System.out.println("OK");
+}
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
@@ -0,0 +1,161 @@
+/*
+ * The original TreeMap-based window minimizer sketch, kept as a reference for the checks and benchmarks
+ *
+ * Every window rescans all of its slots and every base allocates its kmer pair, as the sketcher
+ * did before MinimizerSketcher.  Canonical mode and masking are added in the simplest way: a
+ * canonical window has one slot per position, and a kmer overlapping a low-quality base gets a hash
+ * larger than any real one, with windows whose minimum is masked recording nothing.
+ */
+import java.util.*;
+public class ReferenceSketch {
+static <T> void increment(TreeMap<T, Integer> map, T key)
+{
+	map.put(key, 1 + (map.containsKey(key) ? map.get(key) : 0));
+}
+
+/*
+ * The (K, W) minimizers of the whole read, of the windows within endThreshold of its start, and
+ * of those within endThreshold of its end, packed with their counts as in KmerCounts
+ */
+static long[][] getWindowMinimizers(PackedSequence s, int K, int W, int endThreshold)
+{
+	return getWindowMinimizers(s, K, W, endThreshold, false, null);
+}
+
+/*
+ * The same as above, only considering the canonical kmer at each position if canonical is set and
+ * masking kmers overlapping any base i with low[i] set (low may be null)
+ */
+static long[][] getWindowMinimizers(PackedSequence s, int K, int W, int endThreshold, boolean canonical, boolean[] low)
+{
+	// String too short for any windows - return empty list
+	if(s.length <= K + W) return  new long[][] {{},{}, {}};
+
+	// Set to hold minimizers
+	TreeMap<Long, Integer> kmers = new TreeMap<Long, Integer>();
+	TreeMap<Long, Integer> startKmers = new TreeMap<Long, Integer>();
+	TreeMap<Long, Integer> endKmers = new TreeMap<Long, Integer>();
+
+	// Current values of kmer and reverse complement
+	long[] ks = new long[2];
+
+	// Current kmers and hashes in the window
+	int slots = canonical ? 1 : 2;
+	long[] kWindow = new long[W*slots];
+	long[] vals = new long[W*slots];
+
+	int idx = 0;
+	for(int c = 0; c<s.length; c++)
+	{
+		// Update window
+		ks = updateKmers(K, ks, s.get(c));
+		if(c < K) continue;
+		boolean masked = overlapsLow(low, c, K);
+		long[] window = canonical ? new long[] {Math.min(ks[0], ks[1])} : ks;
+		for(int j = 0; j<slots; j++)
+		{
+			kWindow[idx] = window[j];
+			vals[idx] = masked ? Long.MAX_VALUE : PB_FilterContainedReads.hash(window[j]);
+			idx++;
+			if(idx == vals.length) idx = 0;
+		}
+		if(c < K + W - 1) continue;
+
+		// Add minimizer
+		int bestIdx = 0;
+		for(int i = 1; i<vals.length; i++) if(vals[i] < vals[bestIdx]) bestIdx = i;
+		if(vals[bestIdx] == Long.MAX_VALUE) continue;
+		boolean first = c == K + W - 1;
+		for(int i = 0; i<vals.length; i++) if(vals[i] == vals[bestIdx])
+		{
+			if(first ? endThreshold > 0 : c - (K + W - 1) < endThreshold)
+			{
+				increment(startKmers, kWindow[i]);
+			}
+			if(!first && s.length - c - 1 < endThreshold)
+			{
+				increment(endKmers, kWindow[i]);
+			}
+			increment(kmers, kWindow[i]);
+		}
+	}
+
+	return new long[][] {pack(kmers, K), pack(startKmers, K), pack(endKmers, K)};
+}
+
+/*
+ * The open syncmers of a read and of the kmers within endThreshold of each end, found by testing every
+ * s-mer of every kmer
+ */
+static long[][] getSyncmers(PackedSequence s, int K, int S, int endThreshold, boolean canonical, boolean[] low)
+{
+	TreeMap<Long, Integer> kmers = new TreeMap<Long, Integer>();
+	TreeMap<Long, Integer> startKmers = new TreeMap<Long, Integer>();
+	TreeMap<Long, Integer> endKmers = new TreeMap<Long, Integer>();
+	long[] ks = new long[2];
+	for(int c = 0; c<s.length; c++)
+	{
+		ks = updateKmers(K, ks, s.get(c));
+		if(c < K - 1 || overlapsLow(low, c, K)) continue;
+		for(int j = 0; j<2; j++)
+		{
+			if(canonical && ks[j] != Math.min(ks[0], ks[1])) continue;
+			if(canonical && j == 1 && ks[0] == ks[1]) continue;
+			if(!isSyncmer(ks[j], K, S)) continue;
+			increment(kmers, ks[j]);
+			if(c - (K - 1) < endThreshold) increment(startKmers, ks[j]);
+			if(s.length - c - 1 < endThreshold) increment(endKmers, ks[j]);
+		}
+	}
+	return new long[][] {pack(kmers, K), pack(startKmers, K), pack(endKmers, K)};
+}
+
+/*
+ * Whether the s-mer at offset (K-S)/2 of a kmer has the lowest hash of its s-mers
+ */
+static boolean isSyncmer(long kmer, int K, int S)
+{
+	long smerMask = (1L << (2*S)) - 1;
+	long min = Long.MAX_VALUE, at = 0;
+	for(int offset = 0; offset <= K - S; offset++)
+	{
+		long h = PB_FilterContainedReads.hash((kmer >>> (2*(K - S - offset))) & smerMask);
+		min = Math.min(min, h);
+		if(offset == (K - S) / 2) at = h;
+	}
+	return at == min;
+}
+
+/*
+ * Whether the kmer ending at position c overlaps a base marked in low
+ */
+static boolean overlapsLow(boolean[] low, int c, int K)
+{
+	if(low == null) return false;
+	for(int i = c - K + 1; i<=c; i++) if(low[i]) return true;
+	return false;
+}
+
+/*
+ * Converts a map of kmer counts to a sorted packed sketch
+ */
+static long[] pack(TreeMap<Long, Integer> counts, int K)
+{
+	long[] res = new long[counts.size()];
+	int idx = 0;
+	for(long x : counts.keySet()) res[idx++] = KmerCounts.pack(x, counts.get(x), K);
+	return res;
+}
+
+/*
+ * Updates a sliding kmer and its reverse complement based on the 2-bit code of the next base
+ */
+static long[] updateKmers(int K, long[] kmers, int c)
+{
+	long first = kmers[0] & ((1L << (2*K - 2)) - 1);
+	first = (first << 2) | c;
+	long second = kmers[1] >> 2;
+	second = second | ((long)(c ^ 3) << (2*K-2));
+	return new long[] {first, second};
+}
+}
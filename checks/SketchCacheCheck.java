@@ -0,0 +1,81 @@
+/*
+ * Checks that SketchCache loads back what it saved, and that truncated or corrupt cache files
+ * are reported as unusable instead of throwing or loading partial sketches
+ */
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+public class SketchCacheCheck {
+public static void main(String[] args) throws Exception
+{
+	Random rand = new Random(5);
+	ArrayList<PB_FilterContainedReads.Read> reads = new ArrayList<PB_FilterContainedReads.Read>();
+	for(int i = 0; i<6; i++)
+	{
+		PB_FilterContainedReads.Read r = new PB_FilterContainedReads.Read("read" + i, 1000 + i);
+		r.offset = 100L * i;
+		r.recordLength = 2000 + i;
+		r.repeats = i % 3 == 0;
+		r.ms = randomSketch(rand, 50);
+		r.starts = randomSketch(rand, 10);
+		r.ends = randomSketch(rand, 10);
+		r.starts2 = randomSketch(rand, 5);
+		r.ends2 = randomSketch(rand, 5);
+		r.ms2 = randomSketch(rand, 20);
+		r.fp2 = new int[i % 4];
+		reads.add(r);
+	}
+	File f = File.createTempFile("sketches", ".cache");
+	f.deleteOnExit();
+	SketchCache.save(f.getPath(), "key", reads);
+	byte[] saved = Files.readAllBytes(f.toPath());
+
+	ArrayList<PB_FilterContainedReads.Read> loaded = new ArrayList<PB_FilterContainedReads.Read>();
+	check(SketchCache.load(f.getPath(), "key", loaded), "the saved cache did not load");
+	check(loaded.size() == reads.size(), "loaded " + loaded.size() + " reads instead of " + reads.size());
+	for(int i = 0; i<reads.size(); i++)
+	{
+		PB_FilterContainedReads.Read a = reads.get(i), b = loaded.get(i);
+		check(a.name.equals(b.name) && a.len == b.len && a.offset == b.offset && a.recordLength == b.recordLength
+			&& a.repeats == b.repeats && Arrays.equals(a.ms, b.ms) && Arrays.equals(a.starts, b.starts)
+			&& Arrays.equals(a.ends, b.ends) && Arrays.equals(a.starts2, b.starts2) && Arrays.equals(a.ends2, b.ends2)
+			&& Arrays.equals(a.ms2, b.ms2) && Arrays.equals(a.fp2, b.fp2), "read " + i + " changed");
+	}
+	check(!SketchCache.load(f.getPath(), "other key", new ArrayList<PB_FilterContainedReads.Read>()), "a cache with another key loaded");
+
+	// Every truncation must be rejected without throwing or adding reads
+	for(int length = 0; length<saved.length; length++)
+	{
+		Files.write(f.toPath(), Arrays.copyOf(saved, length));
+		ArrayList<PB_FilterContainedReads.Read> partial = new ArrayList<PB_FilterContainedReads.Read>();
+		check(!SketchCache.load(f.getPath(), "key", partial), "a cache truncated to " + length + " bytes loaded");
+		check(partial.isEmpty(), "reads were added from a cache truncated to " + length + " bytes");
+	}
+
+	// Corrupt bytes may still decode, but must never make loading throw
+	for(int trial = 0; trial<500; trial++)
+	{
+		byte[] corrupt = saved.clone();
+		for(int j = 0; j<1 + rand.nextInt(4); j++) corrupt[rand.nextInt(corrupt.length)] = (byte)rand.nextInt(256);
+		Files.write(f.toPath(), corrupt);
+		SketchCache.load(f.getPath(), "key", new ArrayList<PB_FilterContainedReads.Read>());
+	}
+	System.out.println("OK");
+}
+
+static long[] randomSketch(Random rand, int maxLength)
+{
+	long[] res = new long[rand.nextInt(maxLength + 1)];
+	for(int i = 0; i<res.length; i++) res[i] = rand.nextLong();
+	return res;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
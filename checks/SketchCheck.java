@@ -0,0 +1,124 @@
+/*
+ * Checks MinimizerSketcher against ReferenceSketch on random sequences, for the standalone
+ * window sketch and for every sketch built in the single pass of sketchRead, with and without
+ * canonical kmers, syncmers, and low-quality masking
+ */
+import java.util.*;
+public class SketchCheck {
+public static void main(String[] args) throws Exception
+{
+	ArrayList<PackedSequence> seqs = randomSequences(new Random(1));
+	MinimizerSketcher sketcher = new MinimizerSketcher();
+
+	// (K, W, endThreshold) for the standalone sketch
+	int[][] windowParams = {{12, 5, 500}, {12, 1, 100}, {18, 50, 500}, {31, 10, 300}, {15, 5, 0}, {5, 3, 20}, {18, 200, 500}};
+	for(int[] p : windowParams)
+	{
+		for(PackedSequence s : seqs)
+		{
+			long[][] expected = ReferenceSketch.getWindowMinimizers(s, p[0], p[1], p[2]);
+			long[][] found = sketcher.sketch(s, p[0], p[1], p[2]);
+			for(int j = 0; j<3; j++)
+			{
+				check(Arrays.equals(expected[j], found[j]), "sketch " + Arrays.toString(p) + " part " + j + " length " + s.length);
+			}
+		}
+	}
+
+	// (K1, W1, S1, K2, W2) for sketchRead
+	int[][] readParams = {{12, 5, 0, 18, 50}, {15, 5, 0, 18, 50}, {12, 5, 0, 12, 5}, {20, 30, 0, 10, 3}, {31, 10, 0, 31, 100},
+		{12, 5, 7, 18, 50}, {12, 5, 10, 18, 50}, {18, 50, 6, 18, 50}};
+	Random rand = new Random(2);
+	for(int[] p : readParams)
+	{
+		for(boolean canonical : new boolean[] {false, true})
+		{
+			for(boolean masking : new boolean[] {false, true})
+			{
+				for(PackedSequence s : seqs)
+				{
+					int[] runs = masking ? randomRuns(rand, s.length) : null;
+					long[][] expected = expectedSketches(s, p, canonical, lowBases(runs, s.length));
+					long[][] found = sketcher.sketchRead(s, p[0], p[1], p[2], 500, 100, p[3], p[4], canonical, runs);
+					for(int j = 0; j<expected.length; j++)
+					{
+						check(Arrays.equals(expected[j], found[j]), "sketchRead " + Arrays.toString(p) + " canonical=" + canonical
+							+ " masking=" + masking + " part " + j + " length " + s.length);
+					}
+				}
+			}
+		}
+	}
+	System.out.println("OK");
+}
+
+/*
+ * The sketches sketchRead should return, computed separately by the reference
+ */
+static long[][] expectedSketches(PackedSequence s, int[] p, boolean canonical, boolean[] low)
+{
+	int K1 = p[0], W1 = p[1], S1 = p[2], K2 = p[3], W2 = p[4];
+	long[][] primary = S1 > 0 ? ReferenceSketch.getSyncmers(s, K1, S1, 500, canonical, low)
+		: ReferenceSketch.getWindowMinimizers(s, K1, W1, 500, canonical, low);
+	long[][] ends = ReferenceSketch.getWindowMinimizers(s, K1, 1, 100, canonical, low);
+	long[] candidates = ReferenceSketch.getWindowMinimizers(s, K2, W2, 0, canonical, low)[0];
+	long[] distinct = new long[candidates.length];
+	for(int i = 0; i<distinct.length; i++) distinct[i] = KmerCounts.kmer(candidates[i], K2);
+	return new long[][] {primary[0], primary[1], primary[2], ends[1], ends[2], distinct};
+}
+
+/*
+ * Random sequences of many lengths, some drawn from only two bases so that hashes tie and kmers repeat
+ */
+static ArrayList<PackedSequence> randomSequences(Random rand)
+{
+	ArrayList<PackedSequence> res = new ArrayList<PackedSequence>();
+	byte[] bases = "ACGT".getBytes();
+	for(int len = 1; len < 2500; len += 23)
+	{
+		int alphabet = rand.nextInt(4) == 0 ? 2 : 4;
+		byte[] s = new byte[len];
+		for(int i = 0; i<len; i++) s[i] = bases[rand.nextInt(alphabet)];
+		res.add(new PackedSequence(s, len));
+	}
+	return res;
+}
+
+/*
+ * Random runs of low-quality bases in the format of FastxReader.lowQualityRuns
+ */
+static int[] randomRuns(Random rand, int length)
+{
+	int[] res = new int[0];
+	int count = 0;
+	for(int i = rand.nextInt(200); i<length; i += 1 + rand.nextInt(400))
+	{
+		int end = Math.min(length, i + 1 + rand.nextInt(rand.nextBoolean() ? 5 : 80));
+		res = Arrays.copyOf(res, count + 2);
+		res[count++] = i;
+		res[count++] = end;
+		i = end;
+	}
+	return res;
+}
+
+/*
+ * Whether each base is in one of the runs, or null if there are none
+ */
+static boolean[] lowBases(int[] runs, int length)
+{
+	if(runs == null) return null;
+	boolean[] res = new boolean[length];
+	for(int i = 0; i<runs.length; i += 2) Arrays.fill(res, runs[i], runs[i+1], true);
+	return res;
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
@@ -0,0 +1,40 @@
+/*
+ * Checks that an error thrown by a SketchPipeline worker reaches the producer instead of leaving
+ * it blocked on a full queue
+ */
+import java.util.concurrent.atomic.AtomicReference;
+public class SketchPipelineCheck {
+public static void main(String[] args) throws Exception
+{
+	AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+	Thread producer = new Thread(() -> {
+		try
+		{
+			SketchPipeline<Integer> pipeline = new SketchPipeline<Integer>(2, 1, 1, x -> {
+				if(x == 5) throw new OutOfMemoryError("simulated");
+			});
+			for(int i = 0; i<100000; i++) pipeline.add(i);
+			pipeline.finish();
+		}
+		catch(Throwable e)
+		{
+			thrown.set(e);
+		}
+	});
+	producer.setDaemon(true);
+	producer.start();
+	producer.join(30000);
+	check(!producer.isAlive(), "the producer hung after a worker error");
+	check(thrown.get() instanceof OutOfMemoryError, "the worker error was not rethrown: " + thrown.get());
+	System.out.println("OK");
+}
+
+static void check(boolean ok, String message)
+{
+	if(!ok)
+	{
+		System.out.println("FAILED: " + message);
+		System.exit(1);
+	}
+}
+}
@@ -0,0 +1,25 @@
+#!/bin/bash
+# Checks that ExtractReads keeps records separate when the last record of the read file has no
+# trailing newline and is written before other records (order=list), for plain and gzipped input,
+# and that no temporary file is left behind next to the output
+#
+# usage: checks/extract_check.sh <classdir>
+set -e
+classes=$1
+dir=$(mktemp -d)
+trap 'rm -rf "$dir"' EXIT
+printf '@a\nACGT\n+\nIIII\n@b\nGGCC\n+\nIIII' > "$dir/r.fq"
+printf 'b\na\n' > "$dir/names"
+printf '@b\nGGCC\n+\nIIII\n@a\nACGT\n+\nIIII\n' > "$dir/expected.fq"
+gzip -c "$dir/r.fq" > "$dir/r.fq.gz"
+for input in r.fq r.fq.gz
+do
+	java -cp "$classes" ExtractReads "$dir/names" "$dir/$input" order=list ofn="$dir/out.fq" > /dev/null 2>&1
+	cmp "$dir/expected.fq" "$dir/out.fq"
+done
+if ls "$dir" | grep -q '\.tmp$'
+then
+	echo "FAILED: temporary file left in $dir"
+	exit 1
+fi
+echo "OK"
@@ -0,0 +1,24 @@
+#!/bin/bash
+# Compiles the sources along with the checks in this directory and runs every check,
+# stopping at the first one which fails
+#
+# usage: checks/run_checks.sh
+set -e
+cd "$(dirname "$0")/.."
+classes=$(mktemp -d)
+trap 'rm -rf "$classes"' EXIT
+javac -nowarn -d "$classes" src/*.java $(ls checks/*.java 2>/dev/null)
+for check in checks/*Check.java
+do
+	[ -e "$check" ] || continue
+	name=$(basename "$check" .java)
+	echo "== $name"
+	java -cp "$classes" "$name"
+done
+for check in checks/*_check.sh
+do
+	[ -e "$check" ] || continue
+	echo "== $(basename "$check")"
+	bash "$check" "$classes"
+done
+echo "All checks passed"
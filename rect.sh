@@ -2,9 +2,7 @@ len=$1
 ct=$2
 et=$3
 name=$4
-javac src/*.java; time java -cp src PB_FilterContainedReads ../ERR2173373.fastq nt=24 ct=$ct et=$et w1=5 ofn=/home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.txt dfn=/home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.debug.txt k1=15 rt=.6 lf=$len method=rectangle logging  2>&1 | tee /home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.log.txt
-
-java -cp /home-3/mkirsche@jhu.edu/hashing/CCS/src ExtractReads /home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.txt /home-3/mkirsche@jhu.edu/hashing/ERR2173373.fastq
+javac src/*.java; time java -cp src PB_FilterContainedReads ../ERR2173373.fastq nt=24 ct=$ct et=$et w1=5 ofn=/home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.txt dfn=/home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.debug.txt k1=15 rt=.6 lf=$len method=rectangle logging cache=../ERR2173373.fastq.sketches emit=/home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.txt.fastq  2>&1 | tee /home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.log.txt
 
 /home-3/mkirsche@jhu.edu/hashing/CCS/src/assemble.sh -r /home-3/mkirsche@jhu.edu/hashing/CCS/results/$name.txt.fastq -o fuzzy_$name
 
@@ -4,6 +4,9 @@
  * For contained reads, the score is the maximum harmonic mean of extra bases on each end of any containing read
  * For uncontained reads, it's the number of bases in this read which are not contained in the read r 
  *   such that r contains the highest proportion of this read.  It is also multiplied by -1.
+ *
+ * The intervals file gives each read's start and end in the genome, and 1 if the read was reverse
+ * complemented (see revcomp) or 0 otherwise.
  */
 
 import java.util.*;
@@ -16,10 +19,14 @@ public class SimulateReadsFromGenome {
 	static double mean = 15000;
 	static double stdev = 1500;
 	static double errorRate = 0.12;
+	static double revCompRate = 0;
 	static NormalDistribution nd;
 	static String genomeFn, readOfn, scoreOfn;
 	static String sampleFn;
 	static Random r;
+	
+	// Chooses which reads are reverse complemented, kept apart from r so the default reads don't change
+	static Random strandRandom;
 	static String outRefFn;
 	static  Distribution dist;
 	static String distType;
@@ -52,6 +59,7 @@ public static void main(String[] args)  throws IOException
 	
 	nd = new NormalDistribution(mean, stdev);
 	r = new Random(333);
+	strandRandom = new Random(444);
 	
 	ArrayList<Pair> coords = simulatePositions();
 	System.err.println("Simulated " + coords.size() + " reads");
@@ -62,7 +70,7 @@ public static void main(String[] args)  throws IOException
 	System.err.println("Printing intervals");
 	for(int i = 0; i<coords.size(); i++)
 	{
-		intervalOut.println(getName(coords.get(i).i)+" "+coords.get(i).a+" "+coords.get(i).b);
+		intervalOut.println(getName(coords.get(i).i)+" "+coords.get(i).a+" "+coords.get(i).b+" "+(coords.get(i).rev ? 1 : 0));
 	}
 	
 	System.err.println("Computing scores");
@@ -196,6 +204,7 @@ static String maxLengthKey = "maxlength";
 static String errorKey = "error";
 static String sampleKey = "sample";
 static String distKey = "dist";
+static String revCompKey = "revcomp";
 static int parseArgs(String[] args)
 {
 	if(args.length == 0)
@@ -263,6 +272,10 @@ static int parseArgs(String[] args)
 				errorRate /= 100;
 			}
 		}
+		else if(key.equals(revCompKey))
+		{
+			revCompRate = Double.parseDouble(value);
+		}
 		else if(key.equals("distKey"))
 		{
 			distType = value;
@@ -285,6 +298,7 @@ static void help()
 	System.out.println("  " + maxLengthKey + ": maximum prefix of genome to simulate from");
 	System.out.println("  " + errorRate + ": error rate of reads relative to the reference");
 	System.out.println("  " + sampleKey + ": file to draw sample reads from to use a real distribution");
+	System.out.println("  " + revCompKey + ": fraction of reads to reverse complement (default 0)");
 	System.out.println("  " + distKey + ": the distribution to draw reads from if no sample specified (normal)");
 }
 static ArrayList<Pair> simulatePositions()
@@ -419,6 +433,11 @@ static void printReads(Scanner input, ArrayList<Pair> coords, PrintWriter out, P
 			while(coordsIndex < coords.size() && characterIndex == coords.get(coordsIndex).b)
 			{
 				String simulatedRead = getSuffix(buffer, (int)(coords.get(coordsIndex).b - coords.get(coordsIndex).a));
+				if(revCompRate > 0 && strandRandom.nextDouble() < revCompRate)
+				{
+					coords.get(coordsIndex).rev = true;
+					simulatedRead = reverseComplement(simulatedRead);
+				}
 				out.println(">" + getName(coords.get(coordsIndex).i));
 				out.println(simulatedRead);
 				coordsIndex++;
@@ -463,6 +482,27 @@ static String getSuffix(ArrayDeque<Character> buffer, int length)
 	}
 	return new String(sb.reverse());
 }
+static String reverseComplement(String s)
+{
+	StringBuilder sb = new StringBuilder();
+	for(int i = s.length() - 1; i >= 0; i--)
+	{
+		char c = s.charAt(i);
+		switch(c)
+		{
+			case 'a': sb.append('t'); break;
+			case 'A': sb.append('T'); break;
+			case 'c': sb.append('g'); break;
+			case 'C': sb.append('G'); break;
+			case 'g': sb.append('c'); break;
+			case 'G': sb.append('C'); break;
+			case 't': sb.append('a'); break;
+			case 'T': sb.append('A'); break;
+			default: sb.append(c);
+		}
+	}
+	return sb.toString();
+}
 static char mutate(char c)
 {
 	char[] bases = new char[] {'a', 'A', 'c', 'C', 'g', 'G', 't', 'T'};
@@ -480,6 +520,7 @@ static class Pair implements Comparable<Pair>
 	long a, b;
 	int i;
 	int score;
+	boolean rev;
 	Pair(long aa, long bb, int ii)
 	{
 		a = aa;
@@ -0,0 +1,74 @@
+/*
+ * Hashes arrays of kmers at a time with the integer mixing function used for minimizers
+ *
+ * A vectorized implementation (vector/VectorBatchHasher.java) is used if it has been compiled and
+ * the incubating Vector API is available, and the scalar loop below is used otherwise.  To enable it:
+ *
+ *   javac -d <classdir> src/*.java
+ *   javac --add-modules jdk.incubator.vector -cp <classdir> -d <classdir> src/vector/VectorBatchHasher.java
+ *   java --add-modules jdk.incubator.vector -cp <classdir> ...
+ */
+public interface BatchHasher {
+
+	/*
+	 * The hasher used by the sketching code
+	 */
+	static final BatchHasher INSTANCE = load();
+
+	/*
+	 * Sets hashes[i] to the mixed value of kmers[i], masked to the given bits, for i < n
+	 */
+	void hash(long[] kmers, long[] hashes, int n, long mask);
+
+	/*
+	 * The mixing function applied to a single value
+	 */
+	static long mix(long val)
+	{
+		long x = (~val + (val << 21));
+		x = x ^ (x >> 24);
+		x = (x + (x<<3) + (x<<8));
+		x = x ^ (x >> 14);
+		x = (x + (x<<2) + (x<<4));
+		x = x ^ (x >> 28);
+		x = (x + (x << 31));
+		return x;
+	}
+
+	/*
+	 * Hashes one kmer at a time
+	 */
+	static class Scalar implements BatchHasher
+	{
+		public void hash(long[] kmers, long[] hashes, int n, long mask)
+		{
+			for(int i = 0; i<n; i++) hashes[i] = mix(kmers[i]) & mask;
+		}
+	}
+
+	/*
+	 * Loads the vectorized hasher if possible, falling back to the scalar one
+	 */
+	static BatchHasher load()
+	{
+		try
+		{
+			BatchHasher res = (BatchHasher)Class.forName("VectorBatchHasher").getDeclaredConstructor().newInstance();
+
+			// Make sure it runs and agrees with the scalar code before using it
+			long[] kmers = new long[67], expected = new long[67], hashes = new long[67];
+			for(int i = 0; i<kmers.length; i++) kmers[i] = i * 0x9E3779B97F4A7C15L;
+			new Scalar().hash(kmers, expected, kmers.length, -1L);
+			res.hash(kmers, hashes, kmers.length, -1L);
+			if(java.util.Arrays.equals(expected, hashes))
+			{
+				return res;
+			}
+		}
+		catch(Throwable e)
+		{
+			// The class wasn't compiled or the jdk.incubator.vector module isn't available
+		}
+		return new Scalar();
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Decompresses a BGZF file (as produced by bgzip) by inflating its independent
+ * blocks on a pool of threads while handing out the decompressed bytes in order
+ */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+public class BgzfInputStream extends InputStream {
+
+	/*
+	 * The maximum size of a BGZF block, compressed or not
+	 */
+	static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	/*
+	 * The compressed input
+	 */
+	DataInputStream in;
+
+	/*
+	 * Blocks which have been submitted for decompression, in file order
+	 */
+	ArrayDeque<Future<byte[]>> pending;
+
+	/*
+	 * The number of blocks to keep in flight at a time
+	 */
+	int ahead;
+
+	ExecutorService pool;
+
+	/*
+	 * The decompressed block currently being read from
+	 */
+	byte[] block;
+	int pos;
+
+	boolean inputDone;
+
+	/*
+	 * Each decompression thread reuses a single inflater
+	 */
+	static ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	BgzfInputStream(InputStream in, int threads)
+	{
+		this.in = new DataInputStream(in);
+		ahead = 4 * threads;
+		pending = new ArrayDeque<Future<byte[]>>();
+		block = new byte[0];
+		pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/*
+	 * Checks whether a gzip header is that of a BGZF block
+	 */
+	static boolean isBgzf(byte[] header, int len)
+	{
+		return len >= 16 && (header[0] & 0xff) == 31 && (header[1] & 0xff) == 139
+				&& (header[3] & 4) != 0 && header[12] == 'B' && header[13] == 'C';
+	}
+
+	public int read() throws IOException
+	{
+		if(pos == block.length && !nextBlock()) return -1;
+		return block[pos++] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if(len == 0) return 0;
+		if(pos == block.length && !nextBlock()) return -1;
+		int n = Math.min(len, block.length - pos);
+		System.arraycopy(block, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	/*
+	 * Moves on to the next non-empty decompressed block, returning false at the end of the input
+	 */
+	boolean nextBlock() throws IOException
+	{
+		while(true)
+		{
+			while(!inputDone && pending.size() < ahead)
+			{
+				byte[] raw = readRawBlock();
+				if(raw == null)
+				{
+					inputDone = true;
+				}
+				else
+				{
+					pending.add(pool.submit(() -> inflate(raw)));
+				}
+			}
+			if(pending.isEmpty()) return false;
+			try
+			{
+				block = pending.poll().get();
+			}
+			catch(InterruptedException e)
+			{
+				throw new InterruptedIOException();
+			}
+			catch(ExecutionException e)
+			{
+				throw new IOException("Error decompressing BGZF block", e.getCause());
+			}
+			pos = 0;
+			if(block.length > 0) return true;
+		}
+	}
+
+	/*
+	 * Reads the next whole compressed block, or returns null at the end of the input
+	 */
+	byte[] readRawBlock() throws IOException
+	{
+		byte[] raw = new byte[MAX_BLOCK_SIZE];
+		int first = in.read();
+		if(first == -1) return null;
+		raw[0] = (byte)first;
+		in.readFully(raw, 1, 17);
+		if(!isBgzf(raw, 18))
+		{
+			throw new IOException("Input is gzip-compressed but not in BGZF blocks throughout");
+		}
+		int blockSize = ((raw[16] & 0xff) | ((raw[17] & 0xff) << 8)) + 1;
+		in.readFully(raw, 18, blockSize - 18);
+		return Arrays.copyOf(raw, blockSize);
+	}
+
+	/*
+	 * Inflates a single compressed block and checks it against its stored checksum
+	 */
+	static byte[] inflate(byte[] raw) throws IOException, DataFormatException
+	{
+		int n = raw.length;
+		int extraLength = (raw[10] & 0xff) | ((raw[11] & 0xff) << 8);
+		int dataStart = 12 + extraLength;
+		int size = (raw[n-4] & 0xff) | ((raw[n-3] & 0xff) << 8) | ((raw[n-2] & 0xff) << 16) | ((raw[n-1] & 0xff) << 24);
+		long crc = ((raw[n-8] & 0xff) | ((raw[n-7] & 0xff) << 8) | ((raw[n-6] & 0xff) << 16) | ((long)(raw[n-5] & 0xff) << 24));
+		byte[] res = new byte[size];
+		if(size == 0) return res;
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		inflater.setInput(raw, dataStart, n - 8 - dataStart);
+		int done = 0;
+		while(done < size)
+		{
+			int got = inflater.inflate(res, done, size - done);
+			if(got == 0 && (inflater.finished() || inflater.needsInput())) break;
+			done += got;
+		}
+		CRC32 check = new CRC32();
+		check.update(res, 0, done);
+		if(done != size || check.getValue() != crc)
+		{
+			throw new IOException("Corrupt BGZF block");
+		}
+		return res;
+	}
+
+	public void close() throws IOException
+	{
+		pool.shutdownNow();
+		in.close();
+	}
+}
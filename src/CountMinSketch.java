@@ -0,0 +1,61 @@
+/*
+ * A count-min sketch estimating how often each key has been added, which threads can add to at once
+ *
+ * Each of the rows counts every key in one of width counters chosen by its own hash, and a key's
+ * estimate is its smallest counter.  Estimates are never too low, and are too high by more than
+ * e * (total count) / width with probability at most e^-depth.
+ */
+import java.util.concurrent.atomic.AtomicIntegerArray;
+public class CountMinSketch {
+
+	/*
+	 * Values mixed into a key to get its hash in each row
+	 */
+	static final long[] SEEDS = new long[] {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+		0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L, 0x94D049BB133111EBL};
+
+	int depth, widthBits;
+	AtomicIntegerArray counts;
+
+	CountMinSketch(int depth, int widthBits)
+	{
+		this.depth = Math.min(depth, SEEDS.length);
+		if(widthBits < 1 || widthBits > maxWidthBits(this.depth))
+		{
+			throw new IllegalArgumentException("Count-min sketch width bits must be between 1 and " + maxWidthBits(this.depth) + ": " + widthBits);
+		}
+		this.widthBits = widthBits;
+		counts = new AtomicIntegerArray(this.depth << widthBits);
+	}
+
+	/*
+	 * The most width bits for which all of the counters of the given number of rows fit in one array
+	 */
+	static int maxWidthBits(int depth)
+	{
+		int rows = Math.max(1, Math.min(depth, SEEDS.length));
+		int rowBits = 32 - Integer.numberOfLeadingZeros(rows - 1);
+		return 30 - rowBits;
+	}
+
+	/*
+	 * The counter for a key in a given row
+	 */
+	int cell(long key, int row)
+	{
+		long h = BatchHasher.mix(key ^ SEEDS[row]);
+		return (row << widthBits) + (int)(h >>> (64 - widthBits));
+	}
+
+	void add(long key)
+	{
+		for(int row = 0; row<depth; row++) counts.incrementAndGet(cell(key, row));
+	}
+
+	int estimate(long key)
+	{
+		int res = Integer.MAX_VALUE;
+		for(int row = 0; row<depth; row++) res = Math.min(res, counts.get(cell(key, row)));
+		return res;
+	}
+}
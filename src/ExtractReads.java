@@ -1,54 +1,307 @@
+/*
+ * ExtractReads writes out the records of the reads named in a list
+ *
+ * For uncompressed read files, a sidecar index of every record's offset and length
+ * (readfile.fxi, with lines of the form name\toffset\tlength) is built on the first run and
+ * reused afterwards, so extracting a subset only copies the selected byte ranges
+ */
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 public class ExtractReads {
-public static void main(String[] args) throws IOException
+
+	/*
+	 * The extension of the offset index built alongside a read file
+	 */
+	static String INDEX_EXTENSION = ".fxi";
+
+public static void main(String[] args) throws Exception
 {
 	String fn = "ERR2173373.fastq.8.14.5.500.10";
 	String readsFn = "ERR2173373.fastq";
+	String ofn = "";
+	int threads = 1;
+
+	// Whether to output reads in the order of the name list as opposed to the order of the read file
+	boolean listOrder = false;
+
 	if(args.length > 0)
 	{
 		if(args.length == 1)
 		{
-			System.out.println("readlistfilename readfilename");
+			System.out.println("readlistfilename readfilename [threads=] [order=input|list] [ofn=]");
 		}
 		else
 		{
 			fn = args[0];
 			readsFn = args[1];
+			for(int i = 2; i<args.length; i++)
+			{
+				if(args[i].startsWith("threads="))
+				{
+					threads = Integer.parseInt(args[i].substring("threads=".length()));
+				}
+				else if(args[i].startsWith("order="))
+				{
+					listOrder = args[i].substring("order=".length()).equalsIgnoreCase("list");
+				}
+				else if(args[i].startsWith("ofn="))
+				{
+					ofn = args[i].substring("ofn=".length());
+				}
+			}
 		}
 	}
-	Scanner input = new Scanner(new FileInputStream(new File(fn)));
-	boolean fastq = readsFn.contains("fastq") || readsFn.contains("fq");
-	HashSet<String> rs = new HashSet<String>();
-	while(input.hasNext())
+	if(ofn.length() == 0)
+	{
+		ofn = fn + ".fastq";
+	}
+
+	// Load the names to extract, which also gives each name's position in the list
+	NameSet rs = new NameSet(fn);
+
+	FastxReader reader = new FastxReader(readsFn, threads);
+	int count;
+	if(reader.compressed)
+	{
+		// Offsets into compressed files can't be seeked to, so stream through the records instead
+		count = streamRecords(reader, rs, listOrder, ofn);
+	}
+	else
+	{
+		reader.close();
+		count = copyIndexedRecords(readsFn, rs, listOrder, threads, ofn);
+	}
+	System.out.println(count);
+}
+
+/*
+ * Finds the selected records in the offset index (building it if needed) and copies them in parallel
+ */
+static int copyIndexedRecords(String readsFn, NameSet rs, boolean listOrder, int threads, String ofn) throws Exception
+{
+	File idx = new File(readsFn + INDEX_EXTENSION);
+	if(!idx.exists() || idx.lastModified() < new File(readsFn).lastModified())
 	{
-		rs.add(input.nextLine());
+		buildIndex(readsFn, idx);
 	}
-	int linesPer = fastq ? 4 : 2;
-	String[] buf = new String[linesPer];
-	BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(readsFn)));
-	input = new Scanner(new FileInputStream(new File(readsFn)));
-	int count = 0;
-	PrintWriter out = new PrintWriter(new File(fn + ".fastq"));
-	int ii = 0;
-	long time = System.currentTimeMillis();
-	while(true)
+
+	// Collect the offset, length, and list position of each selected record
+	ArrayList<long[]> records = scanIndex(idx, rs);
+
+	if(listOrder)
 	{
-		try
+		// Stable sort keeps duplicate names in input order
+		Collections.sort(records, (x, y) -> Long.compare(x[2], y[2]));
+	}
+
+	// The last record in the file may not end with a newline, in which case one is added after it
+	// so that it isn't joined onto whatever record follows it in the output
+	long fileLength = new File(readsFn).length();
+	boolean missingNewline = false;
+	if(fileLength > 0)
+	{
+		try(RandomAccessFile in = new RandomAccessFile(readsFn, "r"))
 		{
-			for(int i = 0; i<linesPer; i++) buf[i] = in.readLine();
-			if(rs.contains(buf[0].substring(1)))
+			in.seek(fileLength - 1);
+			missingNewline = in.read() != '\n';
+		}
+	}
+	
+	int n = records.size();
+	long[] outStart = new long[n + 1];
+	boolean[] addNewline = new boolean[n];
+	for(int i = 0; i<n; i++)
+	{
+		long[] rec = records.get(i);
+		addNewline[i] = missingNewline && rec[0] + rec[1] == fileLength;
+		outStart[i+1] = outStart[i] + rec[1] + (addNewline[i] ? 1 : 0);
+	}
+
+	RandomAccessFile out = new RandomAccessFile(ofn, "rw");
+	out.setLength(outStart[n]);
+	FileChannel outChannel = out.getChannel();
+
+	// Split the records into chunks of roughly equal size and copy each on its own thread
+	Thread[] ts = new Thread[Math.max(1, threads)];
+	IOException[] errors = new IOException[ts.length];
+	int first = 0;
+	for(int t = 0; t<ts.length; t++)
+	{
+		int from = first;
+		int to = from;
+		long target = outStart[n] * (t + 1) / ts.length;
+		while(to < n && (outStart[to] < target || t == ts.length - 1)) to++;
+		first = to;
+		int id = t, end = to;
+		ts[t] = new Thread(() -> {
+			try(FileChannel in = new FileInputStream(readsFn).getChannel())
 			{
-				count++;
-				for(int i = 0; i<linesPer; i++) out.println(buf[i]);
+				for(int i = from; i<end; i++)
+				{
+					long[] rec = records.get(i);
+					long done = 0;
+					while(done < rec[1])
+					{
+						in.position(rec[0] + done);
+						done += outChannel.transferFrom(in, outStart[i] + done, rec[1] - done);
+					}
+					if(addNewline[i])
+					{
+						outChannel.write(ByteBuffer.wrap(new byte[] {'\n'}), outStart[i] + rec[1]);
+					}
+				}
 			}
-		} 
-		catch(Exception e)
+			catch(IOException e)
+			{
+				errors[id] = e;
+			}
+		});
+		ts[t].start();
+	}
+	for(Thread t : ts) t.join();
+	outChannel.close();
+	out.close();
+	for(IOException e : errors)
+	{
+		if(e != null) throw e;
+	}
+	return n;
+}
+
+/*
+ * Finds the index entries of all records whose names are in the set, working on the raw bytes
+ * of the index so that no String is created per entry
+ */
+static ArrayList<long[]> scanIndex(File idx, NameSet rs) throws IOException
+{
+	ArrayList<long[]> records = new ArrayList<long[]>();
+	InputStream in = new FileInputStream(idx);
+	byte[] buf = new byte[1 << 20];
+	int len = 0, read;
+	while((read = in.read(buf, len, buf.length - len)) != -1 || len > 0)
+	{
+		int end = read == -1 ? len : len + read;
+		int lineStart = 0;
+		for(int i = len; i<end; i++)
 		{
+			if(buf[i] != '\n') continue;
+			addIndexEntry(buf, lineStart, i, rs, records);
+			lineStart = i + 1;
+		}
+		if(read == -1)
+		{
+			// Handle a final line without a newline
+			if(lineStart < end) addIndexEntry(buf, lineStart, end, rs, records);
 			break;
 		}
+
+		// Move the partial line at the end to the front of the buffer
+		len = end - lineStart;
+		System.arraycopy(buf, lineStart, buf, 0, len);
+		if(len == buf.length) buf = FastxReader.grow(buf, len + 1);
+	}
+	in.close();
+	return records;
+}
+
+/*
+ * Parses an index line in buf[from, to) and keeps it if its name is in the set
+ */
+static void addIndexEntry(byte[] buf, int from, int to, NameSet rs, ArrayList<long[]> records)
+{
+	int b = to - 1;
+	while(buf[b] != '\t') b--;
+	int a = b - 1;
+	while(buf[a] != '\t') a--;
+	int pos = rs.indexOf(buf, from, a - from);
+	if(pos == -1) return;
+	long offset = 0, length = 0;
+	for(int i = a + 1; i<b; i++) offset = offset * 10 + (buf[i] - '0');
+	for(int i = b + 1; i<to; i++) length = length * 10 + (buf[i] - '0');
+	records.add(new long[] {offset, length, pos});
+}
+
+/*
+ * Writes the name, offset, and length of every record in a read file to an index file
+ */
+static void buildIndex(String readsFn, File idx) throws IOException
+{
+	System.err.println("Building index " + idx);
+	FastxReader reader = new FastxReader(readsFn);
+	PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(idx), 1 << 20));
+	while(reader.next())
+	{
+		out.println(reader.name() + "\t" + reader.offset + "\t" + reader.recordLength);
 	}
 	out.close();
-	System.out.println(count);
+	reader.close();
+}
+
+/*
+ * Whether the first len bytes of a record are empty or end with a newline
+ */
+static boolean endsWithNewline(byte[] record, int len)
+{
+	return len == 0 || record[len - 1] == '\n';
+}
+
+/*
+ * Scans through a read file and writes out the selected records
+ *
+ * A compressed file can't be seeked into, so to follow the order of the list the selected records
+ * are first written in file order to a temporary file next to the output, keeping only each one's
+ * offset, length, and list position in memory, and then copied from there in list order
+ */
+static int streamRecords(FastxReader reader, NameSet rs, boolean listOrder, String ofn) throws IOException
+{
+	reader.keepRaw = true;
+	File tmp = null;
+	if(listOrder)
+	{
+		File dir = new File(ofn).getAbsoluteFile().getParentFile();
+		tmp = File.createTempFile("extract", ".tmp", dir);
+		tmp.deleteOnExit();
+	}
+	OutputStream out = new BufferedOutputStream(new FileOutputStream(listOrder ? tmp.getPath() : ofn), 1 << 20);
+
+	// The offset in the temporary file, length, and list position of each record written there
+	ArrayList<long[]> records = new ArrayList<long[]>();
+	long offset = 0;
+	while(reader.next())
+	{
+		int pos = rs.indexOf(reader.name, 0, reader.nameLen);
+		if(pos == -1) continue;
+		out.write(reader.raw, 0, reader.rawLen);
+		long length = reader.rawLen;
+		if(!endsWithNewline(reader.raw, reader.rawLen))
+		{
+			out.write('\n');
+			length++;
+		}
+		records.add(new long[] {offset, length, pos});
+		offset += length;
+	}
+	reader.close();
+	out.close();
+	if(listOrder)
+	{
+		// Stable sort keeps duplicate names in input order
+		Collections.sort(records, (x, y) -> Long.compare(x[2], y[2]));
+		try(FileChannel in = new FileInputStream(tmp).getChannel(); FileChannel ordered = new FileOutputStream(ofn).getChannel())
+		{
+			for(long[] rec : records)
+			{
+				long done = 0;
+				while(done < rec[1])
+				{
+					done += in.transferTo(rec[0] + done, rec[1] - done, ordered);
+				}
+			}
+		}
+		tmp.delete();
+	}
+	return records.size();
+}
 }
-}
\ No newline at end of file
@@ -0,0 +1,378 @@
+/*
+ * Streaming FASTA/FASTQ parser which works directly on a large byte buffer
+ * The format is detected from the first character of each record, FASTA sequences
+ * may span multiple lines, and the name and sequence of the current record are exposed
+ * as reusable byte slices so that no String is allocated per line
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+public class FastxReader {
+
+	/*
+	 * The number of bytes read from the input at a time
+	 */
+	static final int BUFFER_SIZE = 1 << 22;
+
+	/*
+	 * Where each line which is scanned gets copied
+	 */
+	static final int SKIP = 0, NAME = 1, SEQ = 2, QUAL = 3;
+
+	/*
+	 * The filename which stands for standard input or output
+	 */
+	static final String STDIO = "-";
+
+	/*
+	 * The largest array length the JVM reliably allows, which bounds the length of a single record
+	 */
+	static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	/*
+	 * The underlying input and the buffered window of it
+	 */
+	InputStream in;
+	byte[] buf;
+	int pos, lim;
+
+	/*
+	 * The offset in the input of buf[0]
+	 */
+	long bufStart;
+
+	/*
+	 * The header of the current record without its leading '>' or '@'
+	 */
+	byte[] name;
+	int nameLen;
+
+	/*
+	 * The sequence of the current record with line breaks removed
+	 */
+	byte[] seq;
+	int seqLen;
+
+	/*
+	 * The quality string of the current record (only set for FASTQ records)
+	 */
+	byte[] qual;
+	int qualLen;
+
+	/*
+	 * Whether or not the current record is in fastq format as opposed to fasta
+	 */
+	boolean fastq;
+
+	/*
+	 * The byte offset of the current record in the input and the number of bytes it spans,
+	 * including the newline ending its last line
+	 */
+	long offset;
+	long recordLength;
+
+	/*
+	 * Whether or not the input is being decompressed, in which case offsets refer to the decompressed stream
+	 */
+	boolean compressed;
+
+	/*
+	 * If set, the exact bytes of the current record (including line breaks) are kept in raw
+	 */
+	boolean keepRaw;
+	byte[] raw;
+	int rawLen;
+
+	FastxReader(InputStream in)
+	{
+		this.in = in;
+		buf = new byte[BUFFER_SIZE];
+		name = new byte[256];
+		seq = new byte[1 << 16];
+		qual = new byte[1 << 16];
+	}
+
+	FastxReader(String fn) throws IOException
+	{
+		this(fn, 1);
+	}
+
+	FastxReader(String fn, int threads) throws IOException
+	{
+		this(open(fn, threads));
+		compressed = in instanceof GZIPInputStream || in instanceof BgzfInputStream;
+	}
+
+	/*
+	 * Opens a file for reading, transparently decompressing it if it is gzipped.
+	 * BGZF files are decompressed on the given number of threads.  The filename "-" reads
+	 * from standard input.
+	 */
+	static InputStream open(String fn, int threads) throws IOException
+	{
+		InputStream raw = fn.equals(STDIO) ? System.in : new FileInputStream(fn);
+		BufferedInputStream in = new BufferedInputStream(raw, 1 << 16);
+		byte[] header = new byte[18];
+		in.mark(header.length);
+		int len = 0, read;
+		while(len < header.length && (read = in.read(header, len, header.length - len)) != -1)
+		{
+			len += read;
+		}
+		in.reset();
+		if(len < 2 || (header[0] & 0xff) != 31 || (header[1] & 0xff) != 139)
+		{
+			return in;
+		}
+		if(threads > 1 && BgzfInputStream.isBgzf(header, len))
+		{
+			return new BgzfInputStream(in, threads);
+		}
+		return new GZIPInputStream(in, 1 << 16);
+	}
+
+	/*
+	 * Advances to the next record, returning false once the input is exhausted
+	 */
+	boolean next() throws IOException
+	{
+		nameLen = seqLen = qualLen = rawLen = 0;
+
+		// Skip blank lines until the start of the next record
+		int c;
+		while(true)
+		{
+			c = peek();
+			if(c == -1) return false;
+			if(c == '>' || c == '@') break;
+			scanLine(SKIP);
+		}
+
+		offset = bufStart + pos;
+		fastq = c == '@';
+		rawLen = 0;
+		if(keepRaw) appendRaw(pos, 1);
+		pos++;
+		scanLine(NAME);
+
+		if(fastq)
+		{
+			// Sequence lines run until the separator, and quality lines until they cover the sequence
+			while((c = peek()) != -1 && c != '+')
+			{
+				scanLine(SEQ);
+			}
+			if(c != -1)
+			{
+				scanLine(SKIP);
+			}
+			while(qualLen < seqLen && peek() != -1)
+			{
+				scanLine(QUAL);
+			}
+		}
+		else
+		{
+			// Sequence lines run until the header of the next record
+			while((c = peek()) != -1 && c != '>' && c != '@')
+			{
+				scanLine(SEQ);
+			}
+		}
+
+		recordLength = bufStart + pos - offset;
+		return true;
+	}
+
+	/*
+	 * The header of the current record as a String
+	 */
+	String name()
+	{
+		return new String(name, 0, nameLen, StandardCharsets.ISO_8859_1);
+	}
+
+	/*
+	 * The runs of bases in the current record with phred quality below minQuality, as the start and
+	 * (exclusive) end of each run in order, which is empty for fasta records
+	 */
+	int[] lowQualityRuns(int minQuality)
+	{
+		int[] res = new int[0];
+		int count = 0;
+		if(!fastq) return res;
+		int n = Math.min(qualLen, seqLen);
+		for(int i = 0; i<n; i++)
+		{
+			if(qual[i] - 33 >= minQuality) continue;
+			int end = i + 1;
+			while(end < n && qual[end] - 33 < minQuality) end++;
+			if(count + 2 > res.length) res = Arrays.copyOf(res, Math.max(8, 2 * res.length));
+			res[count++] = i;
+			res[count++] = end;
+			i = end;
+		}
+		return Arrays.copyOf(res, count);
+	}
+
+	/*
+	 * Returns the next byte of input without consuming it, or -1 at the end of the input
+	 */
+	int peek() throws IOException
+	{
+		if(pos == lim && !fill()) return -1;
+		return buf[pos];
+	}
+
+	/*
+	 * Refills the buffer, returning false if there is no more input
+	 */
+	boolean fill() throws IOException
+	{
+		bufStart += lim;
+		pos = lim = 0;
+		while(lim == 0)
+		{
+			int read = in.read(buf, 0, buf.length);
+			if(read == -1) return false;
+			lim = read;
+		}
+		return true;
+	}
+
+	/*
+	 * Consumes the rest of the current line and appends it (without the line break) to the given target
+	 */
+	void scanLine(int target) throws IOException
+	{
+		while(pos < lim || fill())
+		{
+			int end = pos;
+			while(end < lim && buf[end] != '\n') end++;
+			if(keepRaw) appendRaw(pos, end < lim ? end + 1 - pos : end - pos);
+			append(target, pos, end - pos);
+			if(end < lim)
+			{
+				pos = end + 1;
+				break;
+			}
+			pos = end;
+		}
+
+		// Strip carriage returns from Windows-style line endings
+		if(target == NAME && nameLen > 0 && name[nameLen - 1] == '\r') nameLen--;
+		else if(target == SEQ && seqLen > 0 && seq[seqLen - 1] == '\r') seqLen--;
+		else if(target == QUAL && qualLen > 0 && qual[qualLen - 1] == '\r') qualLen--;
+	}
+
+	/*
+	 * Appends a range of the buffer to the given target, growing it if needed
+	 */
+	void append(int target, int from, int len) throws IOException
+	{
+		if(target == SKIP || len == 0) return;
+		if(target == NAME)
+		{
+			if((long)nameLen + len > name.length) name = grow(name, (long)nameLen + len);
+			System.arraycopy(buf, from, name, nameLen, len);
+			nameLen += len;
+		}
+		else if(target == SEQ)
+		{
+			if((long)seqLen + len > seq.length) seq = grow(seq, (long)seqLen + len);
+			System.arraycopy(buf, from, seq, seqLen, len);
+			seqLen += len;
+		}
+		else
+		{
+			if((long)qualLen + len > qual.length) qual = grow(qual, (long)qualLen + len);
+			System.arraycopy(buf, from, qual, qualLen, len);
+			qualLen += len;
+		}
+	}
+
+	/*
+	 * Appends a range of the buffer to the raw bytes of the current record
+	 */
+	void appendRaw(int from, int len) throws IOException
+	{
+		if(raw == null) raw = new byte[1 << 16];
+		if((long)rawLen + len > raw.length) raw = grow(raw, (long)rawLen + len);
+		System.arraycopy(buf, from, raw, rawLen, len);
+		rawLen += len;
+	}
+
+	/*
+	 * A copy of an array with room for at least the needed number of bytes, doubling its length
+	 * up to the largest array allowed
+	 */
+	static byte[] grow(byte[] a, long needed) throws IOException
+	{
+		if(needed > MAX_ARRAY_LENGTH)
+		{
+			throw new IOException("Record too long: needs " + needed + " bytes, more than the limit of " + MAX_ARRAY_LENGTH);
+		}
+		long size = Math.max(a.length, 1);
+		while(size < needed) size <<= 1;
+		size = Math.min(size, MAX_ARRAY_LENGTH);
+		byte[] res = new byte[(int)size];
+		System.arraycopy(a, 0, res, 0, a.length);
+		return res;
+	}
+
+	/*
+	 * Writes out the records of a file which start at the given offsets (in increasing order)
+	 * and span the given numbers of bytes, copying their bytes exactly as they appear in the input.
+	 * Uncompressed files are copied with channel transfers without being parsed again.
+	 * Returns the number of records written.
+	 */
+	static int copyRecords(String fn, int threads, long[] offsets, long[] lengths, int n, WritableByteChannel out) throws IOException
+	{
+		FastxReader reader = new FastxReader(fn, threads);
+		if(!reader.compressed)
+		{
+			reader.close();
+			try(FileChannel in = FileChannel.open(new File(fn).toPath()))
+			{
+				// Merge runs of adjacent records into a single transfer
+				int i = 0;
+				while(i < n)
+				{
+					long start = offsets[i], end = offsets[i] + lengths[i];
+					i++;
+					while(i < n && offsets[i] == end)
+					{
+						end += lengths[i];
+						i++;
+					}
+					while(start < end)
+					{
+						start += in.transferTo(start, end - start, out);
+					}
+				}
+			}
+			return n;
+		}
+
+		// Offsets in compressed input refer to the decompressed stream, so it has to be scanned
+		reader.keepRaw = true;
+		int i = 0;
+		while(i < n && reader.next())
+		{
+			if(reader.offset != offsets[i]) continue;
+			ByteBuffer bb = ByteBuffer.wrap(reader.raw, 0, reader.rawLen);
+			while(bb.hasRemaining()) out.write(bb);
+			i++;
+		}
+		reader.close();
+		return i;
+	}
+
+	void close() throws IOException
+	{
+		in.close();
+	}
+}
@@ -1,67 +1,101 @@
 /*
  * FilterLengths filters reads, keeping longer reads, until the desired coverage is reached
+ *
+ * The first pass only builds a histogram of read lengths, and the second streams the records
+ * at or above the length cutoff through unchanged, so memory does not grow with the number of reads
  */
-import java.util.*;
 import java.io.*;
 public class FilterLengths {
 public static void main(String[] args) throws IOException
 {
 	String fn, ofn;
 	int genomeLength, coverage;
-	if(args.length == 4)
+	int threads = 1;
+	if(args.length == 4 || (args.length == 5 && args[4].startsWith("threads=")))
 	{
 		fn = args[0];
 		genomeLength = Integer.parseInt(args[1]);
 		coverage = Integer.parseInt(args[2]);
 		ofn = args[3];
+		if(args.length == 5)
+		{
+			threads = Integer.parseInt(args[4].substring("threads=".length()));
+		}
 	}
 	else
 	{
-		System.out.println("Usage: java FilterLengths <filename> <genomelength> <coverage> <outfilename>");
+		System.out.println("Usage: java FilterLengths <filename> <genomelength> <coverage> <outfilename> [threads=]");
 		return;
 	}
-	Scanner input = new Scanner(new FileInputStream(new File(fn)));
-	ArrayList<Integer> lengths = new ArrayList<Integer>();
-	while(input.hasNext())
+
+	// Find the length cutoff from a histogram of read lengths
+	FastxReader input = new FastxReader(fn, threads);
+	long[] hist = lengthHistogram(input);
+	input.close();
+	long minLength = lengthCutoff(hist, (long)genomeLength * coverage);
+
+	// Copy the records of all reads at least as long as the cutoff
+	input = new FastxReader(fn, threads);
+	input.keepRaw = true;
+	OutputStream out = new BufferedOutputStream(new FileOutputStream(ofn), 1 << 20);
+	while(input.next())
 	{
-		String s = input.nextLine();
-		if(s.startsWith("@"))
+		if(input.seqLen >= minLength)
 		{
-			// FASTQ format
-			lengths.add(input.nextLine().length());
-			input.nextLine();
-			input.nextLine();
-		}
-		else
-		{
-			lengths.add(input.nextLine().length());
+			out.write(input.raw, 0, input.rawLen);
 		}
 	}
-	Collections.sort(lengths);
-	Collections.reverse(lengths);
-	long tot = (long)genomeLength * coverage;
-	long soFar =  0;
-	long minLength = lengths.get(0);
-	for(long l : lengths)
+	input.close();
+	out.close();
+}
+
+/*
+ * Counts how many reads have each length
+ */
+static long[] lengthHistogram(FastxReader input) throws IOException
+{
+	long[] hist = new long[1 << 16];
+	while(input.next())
 	{
-		soFar += l;
-		if(soFar > tot) break;
-		minLength = l;
+		int len = input.seqLen;
+		if(len >= hist.length)
+		{
+			long[] bigger = new long[Math.max(len + 1, hist.length * 2)];
+			System.arraycopy(hist, 0, bigger, 0, hist.length);
+			hist = bigger;
+		}
+		hist[len]++;
 	}
-	input = new Scanner(new FileInputStream(new File(fn)));
-	PrintWriter out = new PrintWriter(new File(ofn));
-	while(input.hasNext())
+	return hist;
+}
+
+/*
+ * Returns the minimum length of the longest reads which together stay within the target number
+ * of bases, where hist[i] is the number of reads of length i.  The longest length is returned if
+ * even a single read of that length exceeds the target, and 0 if there are no reads.
+ */
+static long lengthCutoff(long[] hist, long target)
+{
+	long soFar = 0;
+	long minLength = -1;
+	for(int len = hist.length - 1; len >= 0; len--)
 	{
-		String s = input.nextLine();
-		String[] cur = new String[s.startsWith("@") ? 4 : 2];
-		cur[0] = s;
-		for(int i = 1; i<cur.length; i++) cur[i] = input.nextLine();
-		int length = cur[1].length();
-		if(length >= minLength)
+		long count = hist[len];
+		if(count == 0) continue;
+		if(minLength == -1) minLength = len;
+		if(soFar + len * count <= target)
+		{
+			// The whole bucket fits
+			soFar += len * count;
+			minLength = len;
+			continue;
+		}
+		if(soFar + len <= target)
 		{
-			for(String line : cur) out.println(line);
+			minLength = len;
 		}
+		break;
 	}
-	out.close();
+	return Math.max(minLength, 0);
 }
 }
@@ -6,6 +6,7 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.*;
+import java.nio.channels.FileChannel;
 public class HashContainment {
 	/*
 	 * Parameters:
@@ -41,7 +42,18 @@ public class HashContainment {
 	 * the program forks into multiple threads to guarantee that at least the longest reads will
 	 * have already been processed
 	 * 
-	 * HASH_TYPE: Which hashing scheme to use - 0 is mod-hash and 1 is min-hash
+	 * HASH_TYPE: Which hashing scheme to use - 0 is mod-hash, 1 is min-hash, and 2 is FracMinHash,
+	 *   which keeps the 64-bit hashes of canonical kmers falling in the lowest 1/SCALE of the hash space
+	 * 
+	 * SCALE: The FracMinHash scale factor, which defaults to 2^FREQ_MINIMIZERS
+	 * 
+	 * ERROR_RATE: The per-base error rate of the reads.  With FracMinHash, a kmer shared by two reads
+	 *   only appears in both if it has no errors in either, which happens with probability
+	 *   (1-ERROR_RATE)^(2K), so the observed containment is divided by this before it is
+	 *   compared to CONTAINMENT_THRESHOLD
+	 * 
+	 * MIN_QUALITY: If positive, kmers overlapping any base of a fastq record with phred quality
+	 *   below this are left out of the sketches
 	 * 
 	 * READ_TYPE: Auto-tune parameters to a specific read type.  Options are
 	 *   ccs, pacbio, and nanopore
@@ -56,6 +68,14 @@ public class HashContainment {
 	static int NUM_THREADS = 8;
 	static int PREPROCESS = 5000;
 	static int HASH_TYPE = 0;
+	static long SCALE = 0;
+	static double ERROR_RATE = 0;
+	static int MIN_QUALITY = 0;
+	
+	// The largest hash kept by FracMinHash, as an unsigned value, and the expected fraction of
+	// shared kmers which survive errors in both reads
+	static long MAX_HASH;
+	static double SURVIVAL = 1;
 	static String READ_TYPE = "";
 	static String fn = "/home/mkirsche/ccs/chr22.fastq";
 	
@@ -65,6 +85,9 @@ public class HashContainment {
 	// The filename of the output file
 	static String ofn;
 	
+	// If set, the full records of non-contained reads are written to this file
+	static String emitFn = "";
+	
 	static Random r;
 	
 	// A list of all reads
@@ -79,8 +102,11 @@ public class HashContainment {
 	// A counter keeping track of how many reads have been processed so far
 	static AtomicInteger processed;
 	
-	// The number of reads to assign each thread at a time
-	static 	int iter = 5000;
+	// The number of reads to hand to a sketching thread at a time
+	static 	int iter = 1000;
+	
+	// The maximum number of parsed batches waiting to be sketched (defaults to twice the number of threads)
+	static int QUEUE_DEPTH = 0;
 	
 public static void main(String[] args) throws Exception
 {
@@ -101,82 +127,44 @@ public static void main(String[] args) throws Exception
 	map = new ConcurrentHashMap<>();
 	rs = new ArrayList<Read>();
 	
-	// Check which format the reads are in - currently based on file name
-	boolean fastq = !fn.endsWith("fasta") && !fn.endsWith("fa");
-	
-	// Initialize threads and random number generator
-	ArrayList<MyThread> ts = new ArrayList<MyThread>();
+	// Initialize random number generator and the pipeline which sketches reads as they are parsed
 	r = new Random(50);
-	int thread = 0;
-	int lastEnd = -1;
+	if(QUEUE_DEPTH <= 0) QUEUE_DEPTH = 2 * NUM_THREADS;
+	SketchPipeline<Read> sketcher = new SketchPipeline<Read>(NUM_THREADS, iter, QUEUE_DEPTH, Read::init);
 	
 	// Scan through reads and produce a sketch for each read
-	int countInput = 0;
-	BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(fn)));
-	while(true)
+	FastxReader input = new FastxReader(fn, NUM_THREADS);
+	while(input.next())
 	{
-		try {
-		countInput++;
+		Read cur = new Read(input.name(), new PackedSequence(input.seq, input.seqLen));
+		cur.offset = input.offset;
+		cur.recordLength = (int)input.recordLength;
+		if(MIN_QUALITY > 0) cur.lowQuality = input.lowQualityRuns(MIN_QUALITY);
+		rs.add(cur);
+		sketcher.add(cur);
+		int countInput = rs.size();
 		if(countInput%iter == 0)
 		{
-			int start = lastEnd + 1;
-			int end = countInput - 1;
-			lastEnd = end;
-			if(ts.size() < NUM_THREADS)
-			{
-				ts.add(new MyThread(start, end, 0));
-				ts.get(ts.size() - 1).start();
-			}
-			else
-			{
-				int idx = thread%ts.size();
-				ts.get(idx).join();
-				ts.set(idx, new MyThread(start, end, 0));
-				ts.get(idx).start();
-			}
-			thread++;
-			System.err.println("Input " + countInput + " reads (threads = " + ts.size() + ")");
-		}
-		rs.add(new Read(input.readLine(), input.readLine()));
-		if(fastq)
-		{	
-			input.readLine();
-			input.readLine();
+			System.err.println("Input " + countInput + " reads (batches waiting = " + sketcher.backlog() + ")");
 		}
-		} catch(Exception e) {
-			break;
-		}
-	}
-	int start = lastEnd + 1;
-	int end = rs.size() - 1;
-	if(ts.size() < NUM_THREADS)
-	{
-		ts.add(new MyThread(start, end, 0));
-		ts.get(ts.size() - 1).start();
-	}
-	else
-	{
-		int idx = thread%ts.size();
-		ts.get(idx).join();
-		ts.set(idx, new MyThread(start, end, 0));
-		ts.get(idx).start();
-	}
-	for (MyThread th : ts) {
-	    th.join();
 	}
+	input.close();
+	sketcher.finish();
 	Collections.sort(rs);
 	int n = rs.size();
 	contained = new boolean[n];
 	System.err.println("Total reads: " + n);
+	PREPROCESS = Math.min(PREPROCESS, n);
 	for(int i = 0; i<PREPROCESS; i++) process(i);
 	int[] starts = new int[NUM_THREADS], ends = new int[NUM_THREADS];
 	starts[0] = PREPROCESS;
 	int per = Math.max(0, (n - starts[0]) / NUM_THREADS);
 	for(int i = 1; i<NUM_THREADS; i++) starts[i] = starts[i-1] + per;
 	for(int i = 0; i<NUM_THREADS; i++) ends[i] = i == (NUM_THREADS - 1) ? n-1 : (starts[i+1] - 1);
+	ArrayList<MyThread> ts = new ArrayList<MyThread>();
 	for(int i = 0; i<NUM_THREADS; i++)
 	{
-		ts.set(i, new MyThread(starts[i], ends[i], 1));
+		ts.add(new MyThread(starts[i], ends[i]));
 		ts.get(i).start();
 	}
 	
@@ -198,16 +186,46 @@ public static void main(String[] args) throws Exception
 			out.println(rs.get(i).name);
 	out.close();
 	
+	// Copy the records of non-contained reads from the input without a second pass over the names
+	if(emitFn.length() > 0)
+	{
+		emitUncontained(n - countContained);
+	}
+	
 	// Output the total runtime of the program
 	long endTime = System.currentTimeMillis();
 	System.err.println("Time (ms): " + (endTime - startTime));
 }
+/*
+ * Writes the full records of all non-contained reads to the emit file, in input order
+ */
+static void emitUncontained(int kept) throws IOException
+{
+	Read[] keep = new Read[kept];
+	int idx = 0;
+	for(int i = 0; i<rs.size(); i++)
+		if(!contained[i])
+			keep[idx++] = rs.get(i);
+	Arrays.sort(keep, (a, b) -> Long.compare(a.offset, b.offset));
+	long[] offsets = new long[kept], lengths = new long[kept];
+	for(int i = 0; i<kept; i++)
+	{
+		offsets[i] = keep[i].offset;
+		lengths[i] = keep[i].recordLength;
+	}
+	FileChannel out = new FileOutputStream(emitFn).getChannel();
+	int written = FastxReader.copyRecords(fn, NUM_THREADS, offsets, lengths, kept, out);
+	out.close();
+	System.err.println("Wrote " + written + " reads to " + emitFn);
+}
 static void generateOutputFilename()
 {
 	if(READ_TYPE.length() > 0) ofn = fn + ".uncontained_hash" + "." + READ_TYPE;
 	else ofn = fn + ".uncontained_hash" + "." + FREQ_MINIMIZERS + "_" 
 	+ K + "_" + String.format("%.2f", CONTAINMENT_THRESHOLD) + "_" 
 			+ SAMPLES + "_" + LIMIT + "_" + HASH_TYPE;
+	if(HASH_TYPE == 2) ofn += "_" + SCALE + "_" + ERROR_RATE;
+	if(MIN_QUALITY > 0) ofn += "_q" + MIN_QUALITY;
 }
 /*
  * Parse command line arguments
@@ -222,7 +240,7 @@ static void parseArgs(String[] args)
 			System.out.println("Usage:\n"
 					+ "java HashContainment readfilename freqminimizers k containmentthreshold");
 			System.out.println("Optional parameters:\n"
-					+ "seed= limit= --fnOnly threads= preprocess= hashtype= readtype=");
+					+ "seed= limit= --fnOnly threads= queue= preprocess= hashtype= scale= err= minq= readtype= emit=");
 			return;
 		}
 		fn = args[0];
@@ -257,12 +275,10 @@ static void parseArgs(String[] args)
 				if(s.startsWith("seed="))
 				{
 					SAMPLES = Integer.parseInt(s.substring("seed=".length()));
-					break;
 				}
 				if(s.startsWith("limit="))
 				{
 					LIMIT = Integer.parseInt(s.substring("limit=".length()));
-					break;
 				}
 				if(s.equals("--fnOnly"))
 				{
@@ -272,6 +288,14 @@ static void parseArgs(String[] args)
 				{
 					NUM_THREADS = Integer.parseInt(s.substring("threads=".length()));
 				}
+				if(s.startsWith("emit="))
+				{
+					emitFn = s.substring("emit=".length());
+				}
+				if(s.startsWith("queue="))
+				{
+					QUEUE_DEPTH = Integer.parseInt(s.substring("queue=".length()));
+				}
 				if(s.startsWith("preprocess="))
 				{
 					PREPROCESS = Integer.parseInt(s.substring("preprocess=".length()));
@@ -280,9 +304,24 @@ static void parseArgs(String[] args)
 				{
 					HASH_TYPE = Integer.parseInt(s.substring("hashtype=".length()));
 				}
+				if(s.startsWith("scale="))
+				{
+					SCALE = Long.parseLong(s.substring("scale=".length()));
+				}
+				if(s.startsWith("err="))
+				{
+					ERROR_RATE = Double.parseDouble(s.substring("err=".length()));
+				}
+				if(s.startsWith("minq="))
+				{
+					MIN_QUALITY = Integer.parseInt(s.substring("minq=".length()));
+				}
 			}
 		}
 	}
+	if(SCALE <= 0) SCALE = 1L << FREQ_MINIMIZERS;
+	MAX_HASH = Long.divideUnsigned(-1L, SCALE);
+	SURVIVAL = Math.pow(1 - ERROR_RATE, 2 * K);
 }
 static void process(int i) throws Exception
 {
@@ -362,17 +401,16 @@ static void process(int i) throws Exception
 }
 static class MyThread extends Thread
 {
-	int x, y, p;
-	public MyThread(int i, int j, int phase)
+	int x, y;
+	public MyThread(int i, int j)
 	{
-		x = i; y = j; p = phase;
+		x = i; y = j;
 	}
 	public void run() {
 		 try {
 
 		      for(int i = x; i<=y; i++){
-		    	  if(p == 0) rs.get(i).init();
-		    	  if(p == 1) process(i);
+		    	  process(i);
 		      }
 
 		    } catch(Exception e) {
@@ -383,99 +421,125 @@ static class MyThread extends Thread
 }
 static long hash(long val, long m)
 {
-	long x = (~val + (val << 21));
-	x = x ^ (x >> 24);
-	x = (x + (x<<3) + (x<<8));
-	x = x ^ (x >> 14);
-	x = (x + (x<<2) + (x<<4));
-	x = x ^ (x >> 28);
-	x = (x + (x << 31)) & ((1L<<m)-1);
-	return x;
+	return BatchHasher.mix(val) & ((1L<<m)-1);
 }
-static int map(char c)
+static long[] getModimizers(PackedSequence s, int[] lowQuality)
 {
-	if(c == 'A') return 0;
-	else if(c == 'C') return 1;
-	else if(c == 'G') return 2;
-	return 3;
-}
-static long revComp(long x)
-{
-	long res = 0;
-	for(int i = 0; i<K; i++)
+	LongList kmers = new LongList();
+	QualityMask qm = new QualityMask();
+	qm.reset(lowQuality);
+	int n = s.length;
+	long mask = (1L << (2*K - 2)) - 1;
+	int shift = 2*K - 2;
+	long kmer = 0, kmer2 = 0;
+	
+	// Kmers are rolled a chunk at a time and then hashed together
+	int chunk = Math.min(n, 512);
+	long[] fwd = new long[chunk], rc = new long[chunk], fwdHash = new long[chunk], rcHash = new long[chunk];
+	long hashMask = (1L << FREQ_MINIMIZERS) - 1;
+	for(int from = 0; from<n; from += chunk)
 	{
-		res<<=2;
-		res |= ((x&3)^3);
-		x>>=2;
+		int len = Math.min(chunk, n - from);
+		for(int j = 0; j<len; j++)
+		{
+			// Roll the kmer and its reverse complement forward by one base
+			int c = s.get(from + j);
+			kmer = ((kmer & mask) << 2) | c;
+			kmer2 = (kmer2 >> 2) | ((long)(c ^ 3) << shift);
+			fwd[j] = kmer;
+			rc[j] = kmer2;
+		}
+		BatchHasher.INSTANCE.hash(fwd, fwdHash, len, hashMask);
+		BatchHasher.INSTANCE.hash(rc, rcHash, len, hashMask);
+		for(int j = Math.max(0, K - 1 - from); j<len; j++)
+		{
+			qm.advance(from + j);
+			if(qm.masked(from + j, K)) continue;
+			if(fwdHash[j] == 0) kmers.add(fwd[j]);
+			if(rcHash[j] == 0) kmers.add(rc[j]);
+		}
 	}
-	return res;
+	return kmers.distinct();
 }
-static long[] getModimizers(String s)
+/*
+ * Computes the FracMinHash sketch of a read: the distinct 64-bit hashes of its canonical kmers which
+ * are at most MAX_HASH
+ */
+static long[] getFracMinHashes(PackedSequence s, int[] lowQuality)
 {
-	HashSet<Long> kmers = new HashSet<Long>();
-	int n = s.length();
-	long kmer = 0;
-	for(int i = 0; i<K; i++) kmer = (kmer << 2) | map(s.charAt(i));
-	long kmer2 = revComp(kmer);
-	long hash2 = hash(kmer2, FREQ_MINIMIZERS);
-	long hash = hash(kmer, FREQ_MINIMIZERS);
-	if(hash == 0) kmers.add(kmer);
-	if(hash2 == 0) kmers.add(kmer2);
-	for(int i = K; i<n; i++)
+	LongList hashes = new LongList();
+	QualityMask qm = new QualityMask();
+	qm.reset(lowQuality);
+	int n = s.length;
+	long mask = (1L << (2*K - 2)) - 1;
+	int shift = 2*K - 2;
+	long kmer = 0, kmer2 = 0;
+	
+	// Canonical kmers are rolled a chunk at a time and then hashed together
+	int chunk = Math.min(n, 512);
+	long[] canon = new long[chunk], canonHash = new long[chunk];
+	for(int from = 0; from<n; from += chunk)
 	{
-		kmer = kmer & ((1L << (2*K - 2)) - 1);
-		kmer <<= 2;
-		kmer |= map(s.charAt(i));
-		kmer2 = revComp(kmer);
-		hash2 = hash(kmer2, FREQ_MINIMIZERS);
-		hash = hash(kmer, FREQ_MINIMIZERS);
-		//System.out.println(kmer+" "+hash);
-		if(hash == 0) kmers.add(kmer);
-		if(hash2 == 0) kmers.add(kmer2);
+		int len = Math.min(chunk, n - from);
+		for(int j = 0; j<len; j++)
+		{
+			int c = s.get(from + j);
+			kmer = ((kmer & mask) << 2) | c;
+			kmer2 = (kmer2 >> 2) | ((long)(c ^ 3) << shift);
+			canon[j] = Math.min(kmer, kmer2);
+		}
+		BatchHasher.INSTANCE.hash(canon, canonHash, len, -1L);
+		for(int j = Math.max(0, K - 1 - from); j<len; j++)
+		{
+			qm.advance(from + j);
+			if(qm.masked(from + j, K)) continue;
+			if(Long.compareUnsigned(canonHash[j], MAX_HASH) <= 0) hashes.add(canonHash[j]);
+		}
 	}
-	long[] res = new long[kmers.size()];
-	int idx = 0;
-	for(long km : kmers) res[idx++] = km;
-	Arrays.sort(res);
-	return res;
+	return hashes.distinct();
 }
-static long[] getMinimizers(String s)
+static long[] getMinimizers(PackedSequence s, int[] lowQuality)
 {
-	HashSet<Long> kmers = new HashSet<Long>();
-	int n = s.length();
-	long kmer = 0;
-	for(int i = 0; i<K; i++) kmer = (kmer << 2) | map(s.charAt(i));
-	long kmer2 = revComp(kmer);
-	long mod = (1L<<50) - 1;
-	long hash2 = hash(kmer2, mod);
-	long hash = hash(kmer, mod);
+	LongList kmers = new LongList();
+	QualityMask qm = new QualityMask();
+	qm.reset(lowQuality);
+	int n = s.length;
+	long mask = (1L << (2*K - 2)) - 1;
+	int shift = 2*K - 2;
+	long kmer = 0, kmer2 = 0;
 	int window = 1 << FREQ_MINIMIZERS;
-	MinQueue mq = new MinQueue();
-	mq.add(hash, kmer);
-	mq.add(hash2,  kmer2);
-	for(int i = K; i<n; i++)
+	MinQueue mq = new MinQueue(2*window + 2);
+	for(int i = 0; i<n; i++)
 	{
-		kmer = kmer & ((1L << (2*K - 2)) - 1);
-		kmer <<= 2;
-		kmer |= map(s.charAt(i));
-		kmer2 = revComp(kmer);
-		hash2 = hash(kmer2, FREQ_MINIMIZERS);
-		hash = hash(kmer, FREQ_MINIMIZERS);
-		mq.add(hash, kmer);
-		mq.add(hash2, kmer2);
+		// Roll the kmer and its reverse complement forward by one base
+		int c = s.get(i);
+		kmer = ((kmer & mask) << 2) | c;
+		kmer2 = (kmer2 >> 2) | ((long)(c ^ 3) << shift);
+		if(i < K - 1) continue;
+		
+		// Masked kmers get a hash larger than any other so they are only the minimum of fully masked windows
+		qm.advance(i);
+		boolean masked = qm.masked(i, K);
+		if(i == K - 1)
+		{
+			// The first kmer has always been hashed with a wider mask than the rest
+			long mod = (1L<<50) - 1;
+			mq.add(masked ? Long.MAX_VALUE : hash(kmer, mod), kmer);
+			mq.add(masked ? Long.MAX_VALUE : hash(kmer2, mod), kmer2);
+			continue;
+		}
+		mq.add(masked ? Long.MAX_VALUE : hash(kmer, FREQ_MINIMIZERS), kmer);
+		mq.add(masked ? Long.MAX_VALUE : hash(kmer2, FREQ_MINIMIZERS), kmer2);
 		if(mq.size > 2*window)
 		{
 			mq.remove();
 			mq.remove();
+			if(mq.min() == Long.MAX_VALUE) continue;
 			long minHash = mq.minIndex();
 			kmers.add(minHash);
 		}
 	}
-	long[] res = new long[kmers.size()];
-	int idx = 0;
-	for(long km : kmers) res[idx++] = km;
-	Arrays.sort(res);
-	return res;
+	return kmers.distinct();
 }
 /*
  * Data structure which supports the following operations
@@ -483,51 +547,62 @@ static long[] getMinimizers(String s)
  * Remove - remove the first value from the queue
  * Min - return the smallest value in the queue
  * Also, each value can have an index associated with it
+ *
+ * Only a monotone deque is stored: the values (with their indices and queue positions) which no
+ * later value in the queue is smaller than, in queue order, so the front is the minimum and ties
+ * go to the earliest value.  It lives in primitive ring buffers with room for the given number of
+ * values, which must never be exceeded.
  */
 static class MinQueue
 {
 	int size;
-	ArrayDeque<Long> d;
-	ArrayDeque<Long> maxIndex;
-	Queue<Long> q;
-	public MinQueue()
+	long[] vals, indices, positions;
+	int head, count, mask;
+	
+	// The queue positions of the next value to be added and the next to be removed
+	long added, removed;
+	
+	public MinQueue(int capacity)
 	{
-		d = new ArrayDeque<Long>();
-		maxIndex = new ArrayDeque<Long>();
-		q = new LinkedList<Long>();
+		int length = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		vals = new long[length];
+		indices = new long[length];
+		positions = new long[length];
+		mask = length - 1;
 		size = 0;
 	}
 	long min()
 	{
-		return d.getFirst();
+		return vals[head];
 	}
 	// Returns index associated with min value
 	long minIndex()
 	{
-		return maxIndex.getFirst();
+		return indices[head];
 	}
 	void add(long x, long idx)
 	{
 		size++;
-		q.add(x);
-		while(!d.isEmpty() && d.getLast() > x)
+		while(count > 0 && vals[(head + count - 1) & mask] > x)
 		{
-			d.removeLast();
-			maxIndex.removeLast();
+			count--;
 		}
-		d.add(x);
-		maxIndex.add(idx);
+		int at = (head + count) & mask;
+		vals[at] = x;
+		indices[at] = idx;
+		positions[at] = added++;
+		count++;
 	}
 	void remove()
 	{
-		if(q.isEmpty()) return;
+		if(size == 0) return;
 		size--;
-		q.poll();
-		if(!d.isEmpty() && d.getFirst() == q.peek())
+		if(count > 0 && positions[head] == removed)
 		{
-			d.poll();
-			maxIndex.poll();
+			head = (head + 1) & mask;
+			count--;
 		}
+		removed++;
 	}
 }
 static class Read implements Comparable<Read>
@@ -535,18 +610,24 @@ static class Read implements Comparable<Read>
 	String name;
 	long[] ms;
 	int len;
-	String line;
-	Read(String l1, String l2)
+	long offset;
+	int recordLength;
+	PackedSequence line;
+	
+	// The runs of low-quality bases to mask from the sketch, which are removed once it is built
+	int[] lowQuality;
+	Read(String n, PackedSequence s)
 	{
-		name = l1.substring(1);
-		line = l2;
-		len = l2.length();
+		name = n;
+		line = s;
+		len = s.length;
 	}
 	void init()
 	{
-		line = line.toUpperCase();
-		ms = HASH_TYPE == 0 ? getModimizers(line) : getMinimizers(line);
+		ms = HASH_TYPE == 0 ? getModimizers(line, lowQuality) : HASH_TYPE == 1 ? getMinimizers(line, lowQuality)
+			: getFracMinHashes(line, lowQuality);
 		line = null;
+		lowQuality = null;
 	}
 	boolean contains(Read r)
 	{
@@ -564,6 +645,11 @@ static class Read implements Comparable<Read>
 				common++;
 			}
 		}
+		if(HASH_TYPE == 2)
+		{
+			// Estimate the containment of the error-free sequences
+			return common > CONTAINMENT_THRESHOLD * SURVIVAL * m - 1e-9;
+		}
 		if(common > CONTAINMENT_THRESHOLD * m - 1e-9)
 			return true;
 		return false;
@@ -0,0 +1,135 @@
+/*
+ * A map from int keys to the indices of the reads containing them, which threads can add to and look
+ * up at the same time without boxing keys or values
+ *
+ * Keys are split across a fixed number of stripes, each an open-addressing hash table guarded by its
+ * own lock, so threads working on different keys rarely wait on each other.  Each key keeps at most
+ * limit postings, like the lists in the long-keyed index.
+ */
+import java.util.Arrays;
+import java.util.Collection;
+public class IntPostingIndex {
+
+	static final int STRIPE_BITS = 6;
+
+	Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+
+	/*
+	 * The most postings kept for any key
+	 */
+	int limit;
+
+	IntPostingIndex(int limit)
+	{
+		this.limit = limit;
+		for(int i = 0; i<stripes.length; i++) stripes[i] = new Stripe();
+	}
+
+	/*
+	 * Scrambles a key so that both the stripe and the slot within it are spread evenly
+	 */
+	static int spread(int key)
+	{
+		return key * 0x9E3779B9;
+	}
+
+	/*
+	 * Adds a posting for a key unless the key already has the maximum number
+	 */
+	void add(int key, int value)
+	{
+		int h = spread(key);
+		stripes[h >>> (32 - STRIPE_BITS)].add(key, h, value, limit);
+	}
+
+	/*
+	 * Adds every posting of a key to a collection
+	 */
+	void addPostingsTo(int key, Collection<Integer> out)
+	{
+		int h = spread(key);
+		stripes[h >>> (32 - STRIPE_BITS)].addPostingsTo(key, h, out);
+	}
+
+	/*
+	 * The number of distinct keys
+	 */
+	long size()
+	{
+		long res = 0;
+		for(Stripe s : stripes)
+		{
+			synchronized(s)
+			{
+				res += s.size;
+			}
+		}
+		return res;
+	}
+
+	static class Stripe
+	{
+		// The keys of each slot, which are in use if their postings array is non-null
+		int[] keys = new int[16];
+		int[][] postings = new int[16][];
+		int[] counts = new int[16];
+		int size;
+
+		/*
+		 * The slot holding a key, or the empty slot where it would go
+		 */
+		int find(int key, int h)
+		{
+			int mask = keys.length - 1;
+			int at = h & mask;
+			while(postings[at] != null && keys[at] != key) at = (at + 1) & mask;
+			return at;
+		}
+
+		synchronized void add(int key, int h, int value, int limit)
+		{
+			int at = find(key, h);
+			if(postings[at] == null)
+			{
+				if(limit <= 0) return;
+				keys[at] = key;
+				postings[at] = new int[Math.min(2, limit)];
+				counts[at] = 0;
+				size++;
+			}
+			else if(counts[at] >= limit) return;
+			else if(counts[at] == postings[at].length)
+			{
+				postings[at] = Arrays.copyOf(postings[at], Math.min(limit, 2 * counts[at]));
+			}
+			postings[at][counts[at]++] = value;
+			if(2 * size > keys.length) grow();
+		}
+
+		synchronized void addPostingsTo(int key, int h, Collection<Integer> out)
+		{
+			int at = find(key, h);
+			for(int i = 0; i<counts[at]; i++) out.add(postings[at][i]);
+		}
+
+		/*
+		 * Doubles the table, reinserting every key
+		 */
+		void grow()
+		{
+			int[] oldKeys = keys, oldCounts = counts;
+			int[][] oldPostings = postings;
+			keys = new int[oldKeys.length * 2];
+			postings = new int[oldKeys.length * 2][];
+			counts = new int[oldKeys.length * 2];
+			for(int i = 0; i<oldKeys.length; i++)
+			{
+				if(oldPostings[i] == null) continue;
+				int at = find(oldKeys[i], spread(oldKeys[i]));
+				keys[at] = oldKeys[i];
+				postings[at] = oldPostings[i];
+				counts[at] = oldCounts[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Helpers for sketches stored as one long per distinct kmer, with the kmer in the high 2k bits and
+ * the number of times it occurs in the remaining low bits
+ *
+ * Sorting the packed values as unsigned longs sorts them by kmer, so sketches can be merged without
+ * unpacking them.  Counts too large for the low bits are saturated, so kmers are limited to MAX_K
+ * bases, which keeps counts exact up to 255.
+ */
+public class KmerCounts {
+
+	/*
+	 * The longest kmer whose count still has 8 bits, so that counts up to 255 are exact
+	 */
+	static final int MAX_K = 28;
+
+	/*
+	 * The number of low bits holding the count for a given kmer length
+	 */
+	static int countBits(int k)
+	{
+		return 64 - 2*k;
+	}
+
+	/*
+	 * The largest count which can be stored for a given kmer length
+	 */
+	static long maxCount(int k)
+	{
+		return (1L << countBits(k)) - 1;
+	}
+
+	static long pack(long kmer, long count, int k)
+	{
+		return (kmer << countBits(k)) | Math.min(count, maxCount(k));
+	}
+
+	static long kmer(long packed, int k)
+	{
+		return packed >>> countBits(k);
+	}
+
+	static int count(long packed, int k)
+	{
+		return (int)(packed & maxCount(k));
+	}
+
+	/*
+	 * Replaces the count of a packed kmer
+	 */
+	static long withCount(long packed, long count, int k)
+	{
+		return pack(kmer(packed, k), count, k);
+	}
+
+	/*
+	 * A 32-bit hash of a kmer for down-sampling sketches, which uses the high bits of the mixed
+	 * kmer since the low bits chose the minimizers and so are biased toward small values
+	 */
+	static long densityHash(long kmer)
+	{
+		return BatchHasher.mix(kmer) >>> 32;
+	}
+
+	/*
+	 * The sum of the counts in a sketch
+	 */
+	static int totalCount(long[] sketch, int k)
+	{
+		int res = 0;
+		for(long x : sketch) res += count(x, k);
+		return res;
+	}
+
+	/*
+	 * How many times larger one sketch has to be than the other for commonCount to look up the
+	 * smaller one's kmers instead of merging the two
+	 */
+	static final int GALLOP_RATIO = 8;
+
+	/*
+	 * The sum over kmers shared by two sketches of the smaller of their counts
+	 */
+	static int commonCount(long[] a, long[] b, int k)
+	{
+		if(a.length > GALLOP_RATIO * (long)b.length) return gallopCount(b, a, k);
+		if(b.length > GALLOP_RATIO * (long)a.length) return gallopCount(a, b, k);
+		int common = 0, n = a.length, m = b.length;
+		int shift = countBits(k);
+		int i = 0, j = 0;
+		while(i < n && j < m)
+		{
+			long x = a[i] >>> shift, y = b[j] >>> shift;
+			if(x < y) i++;
+			else if(x > y) j++;
+			else
+			{
+				common += Math.min(count(a[i], k), count(b[j], k));
+				i++;
+				j++;
+			}
+		}
+		return common;
+	}
+
+	/*
+	 * The same as commonCount, finding each kmer of the small sketch in the large one with seek, so
+	 * that the cost grows with the small sketch and only logarithmically with the large one
+	 */
+	static int gallopCount(long[] small, long[] large, int k)
+	{
+		int common = 0, shift = countBits(k), j = 0;
+		for(long x : small)
+		{
+			long kmer = x >>> shift;
+			j = seek(large, j, kmer, shift);
+			if(j == large.length) break;
+			if(large[j] >>> shift == kmer)
+			{
+				common += Math.min(count(x, k), count(large[j], k));
+				j++;
+			}
+		}
+		return common;
+	}
+
+	/*
+	 * The first index at or after from of a sorted sketch whose kmer (its packed value shifted right
+	 * by shift) is at least the given one, or the sketch's length if there is none.  The step is
+	 * doubled until the kmer is passed and the last step is then binary searched.
+	 */
+	static int seek(long[] sketch, int from, long kmer, int shift)
+	{
+		int lo = from, hi = from, step = 1;
+		while(hi < sketch.length && (sketch[hi] >>> shift) < kmer)
+		{
+			lo = hi + 1;
+			hi = (int)Math.min(sketch.length, (long)hi + step);
+			step <<= 1;
+		}
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if((sketch[mid] >>> shift) < kmer) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+}
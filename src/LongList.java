@@ -0,0 +1,56 @@
+/*
+ * A growable list of longs which can be reused, for collecting sketch entries without boxing
+ */
+import java.util.Arrays;
+public class LongList {
+
+	/*
+	 * The values, of which the first size are in use
+	 */
+	long[] a = new long[1024];
+	int size;
+
+	void add(long x)
+	{
+		if(size == a.length) a = Arrays.copyOf(a, size * 2);
+		a[size++] = x;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/*
+	 * Sorts the list of kmers and returns each distinct one packed with the number of times it occurs
+	 */
+	long[] packedCounts(int k)
+	{
+		Arrays.sort(a, 0, size);
+		int distinct = 0, count = 0;
+		for(int i = 0; i<size; i++)
+		{
+			if(i > 0 && a[i] != a[i-1])
+			{
+				a[distinct++] = KmerCounts.pack(a[i-1], count, k);
+				count = 0;
+			}
+			count++;
+		}
+		if(size > 0) a[distinct++] = KmerCounts.pack(a[size-1], count, k);
+		size = distinct;
+		return Arrays.copyOf(a, distinct);
+	}
+
+	/*
+	 * Sorts the list and returns its distinct values
+	 */
+	long[] distinct()
+	{
+		Arrays.sort(a, 0, size);
+		int distinct = 0;
+		for(int i = 0; i<size; i++) if(i == 0 || a[i] != a[i-1]) a[distinct++] = a[i];
+		size = distinct;
+		return Arrays.copyOf(a, distinct);
+	}
+}
@@ -0,0 +1,466 @@
+/*
+ * Builds (K, W) window minimizer and open syncmer sketches of packed sequences without allocating per base
+ *
+ * A sketcher keeps its windows and output buffers between calls, so one instance per thread
+ * can sketch any number of reads.  Minimizers are appended to flat buffers as they are found
+ * and turned into sorted (kmer, count) pairs with a single sort at the end of each read.
+ * All of the sketches of a read are built in one pass over its sequence, which is rolled into
+ * kmers a chunk at a time so that each chunk's kmers can be hashed together by a BatchHasher.
+ */
+public class MinimizerSketcher {
+
+	/*
+	 * A sketcher for each thread which calls the static sketching methods
+	 */
+	static final ThreadLocal<MinimizerSketcher> LOCAL = ThreadLocal.withInitial(MinimizerSketcher::new);
+
+	/*
+	 * The windows for the primary sketch, the short-window end sketch, and the candidate sketch
+	 */
+	Window primary = new Window(), endWindow = new Window(), candidate = new Window();
+
+	/*
+	 * The number of positions whose kmers are hashed together
+	 */
+	static final int CHUNK = 512;
+
+	/*
+	 * The forward and reverse complement kmers of each length at each position of the current chunk, and their hashes
+	 */
+	long[] fwd1 = new long[CHUNK], rc1 = new long[CHUNK], fwd2 = new long[CHUNK], rc2 = new long[CHUNK];
+	long[] fwdHash1 = new long[CHUNK], rcHash1 = new long[CHUNK], fwdHash2 = new long[CHUNK], rcHash2 = new long[CHUNK];
+
+	/*
+	 * The syncmer state for the primary sketch, and the s-mers at each position of the current chunk with their hashes
+	 */
+	Syncmers syncmers = new Syncmers();
+	long[] fwdS = new long[CHUNK], rcS = new long[CHUNK], fwdHashS = new long[CHUNK], rcHashS = new long[CHUNK];
+
+	/*
+	 * The low-quality bases of the current read, and the last one at or before each position of the current chunk
+	 */
+	QualityMask mask = new QualityMask();
+	int[] lastLow = new int[CHUNK];
+
+	/*
+	 * The hash given to kmers overlapping low-quality bases, which is larger than any real hash
+	 * so they are never chosen while any other kmer is in the window
+	 */
+	static final long MASKED = Long.MAX_VALUE;
+
+	/*
+	 * Computes the minimizers of every window of W consecutive kmers, where the forward and
+	 * reverse complement kmers of each position are both in the window and every kmer tied
+	 * for the lowest hash is a minimizer.  Returns the kmers packed with their counts as in KmerCounts,
+	 * sorted by kmer, of the minimizers of the whole read, of the windows within endThreshold of the
+	 * start, and of the windows within endThreshold of the end.
+	 */
+	long[][] sketch(PackedSequence s, int K, int W, int endThreshold)
+	{
+		Window w = primary;
+		w.reset(s.length, K, W, endThreshold, false, false);
+
+		// String too short for any windows - return empty list
+		if(!w.active) return new long[][] {{}, {}, {}};
+
+		long[] bits = s.bits;
+		long mask = (1L << (2*K - 2)) - 1;
+		int shift = 2*K - 2;
+		long fwd = 0, rc = 0;
+		for(int i = 0; i<s.length; i++)
+		{
+			int c = (int)(bits[i >>> 5] >>> ((i & 31) << 1)) & 3;
+			fwd = ((fwd & mask) << 2) | c;
+			rc = (rc >> 2) | ((long)(c ^ 3) << shift);
+			if(i >= K)
+			{
+				w.add(i, fwd, PB_FilterContainedReads.hash(fwd), rc, PB_FilterContainedReads.hash(rc));
+			}
+		}
+		return new long[][] {w.all.packedCounts(K), w.start.packedCounts(K), w.end.packedCounts(K)};
+	}
+
+	/*
+	 * Builds every sketch of a read in a single pass, giving the same results as separately computing
+	 * the (K1, W1) minimizers with ends of length endThreshold, the (K1, 1) minimizers with ends of
+	 * length endThreshold2, and the (K2, W2) minimizers.  Returns the whole-read, start, and end
+	 * sketches of the first, the start and end sketches of the second, and the distinct kmers of the third.
+	 * The first five are packed with their counts as in KmerCounts.
+	 * If S1 is positive, the first sketch is made of the open syncmers of K1-mers with S1-mers instead.
+	 * If canonical is set, every sketch only considers the canonical kmer at each position.
+	 * Kmers overlapping the runs of low-quality bases in lowQuality (which may be null) are never chosen.
+	 */
+	long[][] sketchRead(PackedSequence s, int K1, int W1, int S1, int endThreshold, int endThreshold2, int K2, int W2,
+		boolean canonical, int[] lowQuality)
+	{
+		int n = s.length;
+		boolean useSyncmers = S1 > 0;
+		primary.reset(useSyncmers ? 0 : n, K1, W1, endThreshold, false, canonical);
+		syncmers.reset(useSyncmers ? n : 0, K1, S1, endThreshold, canonical);
+		endWindow.reset(n, K1, 1, endThreshold2, true, canonical);
+		candidate.reset(n, K2, W2, 0, false, canonical);
+
+		long[] bits = s.bits;
+		long mask1 = (1L << (2*K1 - 2)) - 1, mask2 = (1L << (2*K2 - 2)) - 1;
+		int shift1 = 2*K1 - 2, shift2 = 2*K2 - 2;
+		long f1 = 0, r1 = 0, f2 = 0, r2 = 0;
+		long maskS = useSyncmers ? (1L << (2*S1 - 2)) - 1 : 0;
+		int shiftS = useSyncmers ? 2*S1 - 2 : 0;
+		long fs = 0, rs = 0;
+		boolean masking = lowQuality != null && lowQuality.length > 0;
+		mask.reset(lowQuality);
+		BatchHasher hasher = BatchHasher.INSTANCE;
+		for(int from = 0; from<n; from += CHUNK)
+		{
+			// Roll the kmers of both lengths through the chunk
+			int len = Math.min(CHUNK, n - from);
+			for(int j = 0; j<len; j++)
+			{
+				int i = from + j;
+				int c = (int)(bits[i >>> 5] >>> ((i & 31) << 1)) & 3;
+				f1 = ((f1 & mask1) << 2) | c;
+				r1 = (r1 >> 2) | ((long)(c ^ 3) << shift1);
+				f2 = ((f2 & mask2) << 2) | c;
+				r2 = (r2 >> 2) | ((long)(c ^ 3) << shift2);
+				fwd1[j] = f1;
+				rc1[j] = r1;
+				fwd2[j] = f2;
+				rc2[j] = r2;
+				if(useSyncmers)
+				{
+					fs = ((fs & maskS) << 2) | c;
+					rs = (rs >> 2) | ((long)(c ^ 3) << shiftS);
+					fwdS[j] = fs;
+					rcS[j] = rs;
+				}
+				if(masking)
+				{
+					mask.advance(i);
+					lastLow[j] = mask.lastLow;
+				}
+			}
+
+			hasher.hash(fwd1, fwdHash1, len, PB_FilterContainedReads.HASH_MASK);
+			hasher.hash(rc1, rcHash1, len, PB_FilterContainedReads.HASH_MASK);
+			hasher.hash(fwd2, fwdHash2, len, PB_FilterContainedReads.HASH_MASK);
+			hasher.hash(rc2, rcHash2, len, PB_FilterContainedReads.HASH_MASK);
+			if(useSyncmers)
+			{
+				hasher.hash(fwdS, fwdHashS, len, PB_FilterContainedReads.HASH_MASK);
+				hasher.hash(rcS, rcHashS, len, PB_FilterContainedReads.HASH_MASK);
+			}
+			if(masking)
+			{
+				for(int j = 0; j<len; j++)
+				{
+					int i = from + j;
+					if(lastLow[j] > i - K1) fwdHash1[j] = rcHash1[j] = MASKED;
+					if(lastLow[j] > i - K2) fwdHash2[j] = rcHash2[j] = MASKED;
+				}
+			}
+
+			// Both K1 sketches share the kmers and hashes at each position
+			for(int j = 0; j<len; j++)
+			{
+				int i = from + j;
+				if(primary.needs(i)) primary.add(i, fwd1[j], fwdHash1[j], rc1[j], rcHash1[j]);
+				if(syncmers.needs(i)) syncmers.add(i, fwd1[j], rc1[j], fwdHashS[j], rcHashS[j], fwdHash1[j] == MASKED);
+				if(endWindow.needs(i)) endWindow.add(i, fwd1[j], fwdHash1[j], rc1[j], rcHash1[j]);
+				if(candidate.needs(i)) candidate.add(i, fwd2[j], fwdHash2[j], rc2[j], rcHash2[j]);
+			}
+		}
+		LongList all = useSyncmers ? syncmers.all : primary.all;
+		LongList start = useSyncmers ? syncmers.start : primary.start;
+		LongList end = useSyncmers ? syncmers.end : primary.end;
+		return new long[][] {
+			all.packedCounts(K1), start.packedCounts(K1), end.packedCounts(K1),
+			endWindow.start.packedCounts(K1), endWindow.end.packedCounts(K1),
+			candidate.all.distinct()
+		};
+	}
+
+	/*
+	 * The state of one (K, W) minimizer sketch while a read is scanned
+	 */
+	static class Window
+	{
+		int K, W, endThreshold, length;
+
+		/*
+		 * Whether the read is long enough for any windows
+		 */
+		boolean active;
+
+		/*
+		 * Whether only the windows near the ends are needed, in which case kmers in between are skipped
+		 */
+		boolean endsOnly;
+
+		/*
+		 * Whether each position only adds its canonical kmer, in slot 2i, to the window
+		 */
+		boolean canonical;
+
+		/*
+		 * The last position ending a window near the start, and the first position in any window near the end
+		 */
+		int lastStart, firstEnd;
+
+		/*
+		 * A monotone deque over the current window: the kmers, hashes, and slot numbers of every slot
+		 * which no later slot in the window beats, in order, so hashes are nondecreasing from the front.
+		 * The slots tied for the window minimum are then exactly a prefix of the deque.
+		 * Position i fills slots 2i (forward) and 2i+1 (reverse complement).
+		 */
+		long[] dqKmers = new long[0];
+		long[] dqVals = new long[0];
+		int[] dqSlots = new int[0];
+		int head, size, dqMask;
+
+		/*
+		 * The minimizers found so far in the whole read and near each of its ends, with repeats
+		 */
+		LongList all = new LongList(), start = new LongList(), end = new LongList();
+
+		void reset(int length, int K, int W, int endThreshold, boolean endsOnly, boolean canonical)
+		{
+			this.length = length;
+			this.K = K;
+			this.W = W;
+			this.endThreshold = endThreshold;
+			this.endsOnly = endsOnly;
+			this.canonical = canonical;
+			active = length > K + W;
+			lastStart = K + W - 2 + endThreshold;
+			firstEnd = length - endThreshold - W + 1;
+
+			// The deque never holds more than 2W+2 entries
+			int slots = W << 1;
+			if(dqVals.length < slots + 2)
+			{
+				int capacity = Integer.highestOneBit(slots + 2) << 1;
+				dqKmers = new long[capacity];
+				dqVals = new long[capacity];
+				dqSlots = new int[capacity];
+				dqMask = capacity - 1;
+			}
+			head = size = 0;
+			all.clear();
+			start.clear();
+			end.clear();
+		}
+
+		/*
+		 * Whether the kmers ending at position i are part of any window this sketch uses
+		 * The first full kmer (ending at K-1) has never been part of a window.
+		 */
+		boolean needs(int i)
+		{
+			return active && i >= K && (!endsOnly || i <= lastStart || i >= firstEnd);
+		}
+
+		/*
+		 * Adds the kmers ending at position i and records the minimizers of the window ending there
+		 */
+		void add(int i, long fwd, long fwdHash, long rc, long rcHash)
+		{
+			if(!canonical)
+			{
+				push(fwd, fwdHash, 2*i);
+				push(rc, rcHash, 2*i + 1);
+			}
+			else if(fwd <= rc) push(fwd, fwdHash, 2*i);
+			else push(rc, rcHash, 2*i);
+			if(i < K + W - 1) return;
+
+			// Drop slots which have left the window
+			while(dqSlots[head] < 2*(i + 1 - W))
+			{
+				head = (head + 1) & dqMask;
+				size--;
+			}
+
+			// The first window counts toward the start but never the end
+			boolean first = i == K + W - 1;
+			boolean nearStart = first ? endThreshold > 0 : i - (K + W - 1) < endThreshold;
+			boolean nearEnd = !first && length - i - 1 < endThreshold;
+			if(endsOnly && !nearStart && !nearEnd) return;
+
+			long min = dqVals[head];
+			if(min == MASKED) return;
+			for(int j = 0; j<size; j++)
+			{
+				int at = (head + j) & dqMask;
+				if(dqVals[at] != min) break;
+				if(nearStart) start.add(dqKmers[at]);
+				if(nearEnd) end.add(dqKmers[at]);
+				if(!endsOnly) all.add(dqKmers[at]);
+			}
+		}
+
+		/*
+		 * Adds a kmer to the back of the deque, first removing the slots it beats
+		 */
+		void push(long kmer, long val, int slot)
+		{
+			while(size > 0 && dqVals[(head + size - 1) & dqMask] > val) size--;
+			int at = (head + size) & dqMask;
+			dqKmers[at] = kmer;
+			dqVals[at] = val;
+			dqSlots[at] = slot;
+			size++;
+		}
+	}
+
+	/*
+	 * The state of an open syncmer sketch while a read is scanned.  A kmer is an open syncmer if the
+	 * s-mer at offset (K-S)/2 has the lowest hash of all of the kmer's s-mers (ties allowed).
+	 * Forward and reverse complement kmers are each tested on their own s-mers, so the choice only
+	 * depends on the kmer and a read and its reverse complement select the same kmers.  Each kmer is
+	 * tested on its own, giving a density of about 1/(K-S+1) per strand independent of the other
+	 * kmers nearby, and syncmers are counted once per occurrence.  In canonical mode, only the
+	 * canonical kmer at each position is tested.
+	 */
+	static class Syncmers
+	{
+		int K, S, offset, endThreshold, length;
+
+		/*
+		 * Whether the read is long enough to have any kmers
+		 */
+		boolean active;
+
+		boolean canonical;
+
+		/*
+		 * The hashes of the most recent K-S+1 forward and reverse complement s-mers, by end position
+		 */
+		long[] fwdRing = new long[0], rcRing = new long[0];
+		int ringMask;
+
+		/*
+		 * The minimum hashes of the s-mers in the current kmer on each strand
+		 */
+		SlidingMin fwdMin = new SlidingMin(), rcMin = new SlidingMin();
+
+		/*
+		 * The syncmers found so far in the whole read and near each of its ends, with repeats
+		 */
+		LongList all = new LongList(), start = new LongList(), end = new LongList();
+
+		void reset(int length, int K, int S, int endThreshold, boolean canonical)
+		{
+			this.length = length;
+			this.K = K;
+			this.S = S;
+			this.endThreshold = endThreshold;
+			this.canonical = canonical;
+			offset = (K - S) / 2;
+			active = S > 0 && length >= K;
+			all.clear();
+			start.clear();
+			end.clear();
+			if(!active) return;
+			int capacity = Integer.highestOneBit(K - S + 1) << 1;
+			if(fwdRing.length < capacity)
+			{
+				fwdRing = new long[capacity];
+				rcRing = new long[capacity];
+				ringMask = capacity - 1;
+			}
+			fwdMin.reset(K - S + 1);
+			rcMin.reset(K - S + 1);
+		}
+
+		/*
+		 * Whether the s-mers ending at position i are needed
+		 */
+		boolean needs(int i)
+		{
+			return active && i >= S - 1;
+		}
+
+		/*
+		 * Adds the s-mers ending at position i and tests the kmers ending there, unless they are masked
+		 */
+		void add(int i, long fwd, long rc, long fwdSmerHash, long rcSmerHash, boolean masked)
+		{
+			fwdRing[i & ringMask] = fwdSmerHash;
+			rcRing[i & ringMask] = rcSmerHash;
+			fwdMin.push(fwdSmerHash, i);
+			rcMin.push(rcSmerHash, i);
+			if(i < K - 1) return;
+
+			// The kmer ending at i contains the s-mers ending in [i-(K-S), i]
+			int first = i - (K - S);
+			fwdMin.expire(first);
+			rcMin.expire(first);
+			boolean nearStart = i - (K - 1) < endThreshold;
+			boolean nearEnd = length - i - 1 < endThreshold;
+			if(masked) return;
+
+			// On the reverse strand, the s-mer at the kmer's offset is the one ending offset bases before i
+			boolean useFwd = !canonical || fwd <= rc, useRc = !canonical || rc < fwd;
+			if(useFwd && fwdRing[(first + offset) & ringMask] == fwdMin.min()) record(fwd, nearStart, nearEnd);
+			if(useRc && rcRing[(i - offset) & ringMask] == rcMin.min()) record(rc, nearStart, nearEnd);
+		}
+
+		void record(long kmer, boolean nearStart, boolean nearEnd)
+		{
+			all.add(kmer);
+			if(nearStart) start.add(kmer);
+			if(nearEnd) end.add(kmer);
+		}
+	}
+
+	/*
+	 * The minimum of a sliding window of values, kept in a monotone deque of (value, position) pairs
+	 */
+	static class SlidingMin
+	{
+		long[] vals = new long[0];
+		int[] positions = new int[0];
+		int head, size, mask;
+
+		/*
+		 * Clears the deque and makes room for a window of the given size
+		 */
+		void reset(int window)
+		{
+			int capacity = Integer.highestOneBit(window + 1) << 1;
+			if(vals.length < capacity)
+			{
+				vals = new long[capacity];
+				positions = new int[capacity];
+				mask = capacity - 1;
+			}
+			head = size = 0;
+		}
+
+		void push(long val, int pos)
+		{
+			while(size > 0 && vals[(head + size - 1) & mask] >= val) size--;
+			int at = (head + size) & mask;
+			vals[at] = val;
+			positions[at] = pos;
+			size++;
+		}
+
+		/*
+		 * Removes values added before the given position
+		 */
+		void expire(int first)
+		{
+			while(positions[head] < first)
+			{
+				head = (head + 1) & mask;
+				size--;
+			}
+		}
+
+		long min()
+		{
+			return vals[head];
+		}
+	}
+}
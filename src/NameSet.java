@@ -0,0 +1,209 @@
+/*
+ * A compact set of read names for membership tests against streamed headers
+ *
+ * Names are kept back to back in a single byte array and looked up through a sorted
+ * array of their 64-bit fingerprints, so a name costs its own length plus 16 bytes.
+ * Fingerprint matches are verified against the stored bytes, so collisions never cause
+ * false positives, and lookups take a byte slice so no String is needed per header.
+ */
+import java.io.*;
+import java.util.Arrays;
+public class NameSet {
+
+	/*
+	 * All names in list order, with name i in bytes[starts[i], starts[i+1])
+	 */
+	byte[] bytes;
+	int[] starts;
+
+	/*
+	 * The fingerprints of the names in sorted order, and the list position of each
+	 */
+	long[] fingerprints;
+	int[] order;
+
+	/*
+	 * The number of names
+	 */
+	int size;
+
+	/*
+	 * Reads a set of names from a file with one name per line, skipping blank lines
+	 */
+	NameSet(String fn) throws IOException
+	{
+		bytes = new byte[1 << 16];
+		starts = new int[1024];
+		InputStream in = new FileInputStream(fn);
+		byte[] buf = new byte[1 << 20];
+		int len = 0, read;
+		while((read = in.read(buf)) != -1)
+		{
+			for(int i = 0; i<read; i++)
+			{
+				if(buf[i] == '\n')
+				{
+					// Drop the carriage return of Windows-style line endings
+					if(len > starts[size] && bytes[len-1] == '\r') len--;
+					if(isBlank(starts[size], len)) len = starts[size];
+					else addName(len);
+					continue;
+				}
+				if(len == bytes.length) bytes = FastxReader.grow(bytes, len + 1);
+				bytes[len++] = buf[i];
+			}
+		}
+		if(isBlank(starts[size], len)) len = starts[size];
+		else addName(len);
+		in.close();
+		bytes = Arrays.copyOf(bytes, len);
+		starts = Arrays.copyOf(starts, size + 1);
+
+		fingerprints = new long[size];
+		order = new int[size];
+		for(int i = 0; i<size; i++)
+		{
+			fingerprints[i] = fingerprint(bytes, starts[i], starts[i+1] - starts[i]);
+			order[i] = i;
+		}
+		sort(0, size - 1);
+	}
+
+	/*
+	 * Whether bytes[from, to) is empty or only whitespace
+	 */
+	boolean isBlank(int from, int to)
+	{
+		for(int i = from; i<to; i++)
+		{
+			if(!Character.isWhitespace(bytes[i])) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Ends the current name at the given position in the byte array
+	 */
+	void addName(int end)
+	{
+		size++;
+		if(size + 1 >= starts.length)
+		{
+			int[] bigger = new int[starts.length * 2];
+			System.arraycopy(starts, 0, bigger, 0, starts.length);
+			starts = bigger;
+		}
+		starts[size] = end;
+	}
+
+	/*
+	 * Returns the position in the list of the given name, or -1 if it is not in the set.
+	 * If a name appears more than once, its first position is returned.
+	 */
+	int indexOf(byte[] name, int from, int len)
+	{
+		long fp = fingerprint(name, from, len);
+		int lo = 0, hi = size;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(fingerprints[mid] < fp) lo = mid + 1;
+			else hi = mid;
+		}
+		for(int i = lo; i<size && fingerprints[i] == fp; i++)
+		{
+			int idx = order[i];
+			if(equal(idx, name, from, len)) return idx;
+		}
+		return -1;
+	}
+
+	/*
+	 * Whether the name at list position idx matches the given bytes
+	 */
+	boolean equal(int idx, byte[] name, int from, int len)
+	{
+		int start = starts[idx];
+		if(starts[idx+1] - start != len) return false;
+		for(int i = 0; i<len; i++)
+		{
+			if(bytes[start + i] != name[from + i]) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * A 64-bit FNV-1a hash of the bytes, with a final mixing step to spread the high bits
+	 */
+	static long fingerprint(byte[] b, int from, int len)
+	{
+		long h = 0xcbf29ce484222325L;
+		for(int i = from; i<from+len; i++)
+		{
+			h ^= b[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/*
+	 * Sorts names by fingerprint, breaking ties by list position
+	 */
+	void sort(int lo, int hi)
+	{
+		while(hi - lo > 16)
+		{
+			int mid = (lo + hi) >>> 1;
+			long pivotFp = fingerprints[mid];
+			int pivotIdx = order[mid];
+			int i = lo, j = hi;
+			while(i <= j)
+			{
+				while(less(fingerprints[i], order[i], pivotFp, pivotIdx)) i++;
+				while(less(pivotFp, pivotIdx, fingerprints[j], order[j])) j--;
+				if(i <= j)
+				{
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+			// Recurse into the smaller side to bound the stack depth
+			if(j - lo < hi - i)
+			{
+				sort(lo, j);
+				lo = i;
+			}
+			else
+			{
+				sort(i, hi);
+				hi = j;
+			}
+		}
+		for(int i = lo + 1; i<=hi; i++)
+		{
+			for(int j = i; j > lo && less(fingerprints[j], order[j], fingerprints[j-1], order[j-1]); j--)
+			{
+				swap(j, j-1);
+			}
+		}
+	}
+
+	static boolean less(long fpA, int idxA, long fpB, int idxB)
+	{
+		return fpA < fpB || (fpA == fpB && idxA < idxB);
+	}
+
+	void swap(int i, int j)
+	{
+		long fp = fingerprints[i];
+		fingerprints[i] = fingerprints[j];
+		fingerprints[j] = fp;
+		int idx = order[i];
+		order[i] = order[j];
+		order[j] = idx;
+	}
+}
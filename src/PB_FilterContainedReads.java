@@ -5,7 +5,9 @@
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 public class PB_FilterContainedReads {
 	
 	/*
@@ -40,11 +42,6 @@ public class PB_FilterContainedReads {
 	 */
 	static int K2 = 18, W2 = 50;
 	
-	/*
-	 * Whether or not the read file is in fastq format as opposed to fasta
-	 */
-	static boolean fastq = true;
-	
 	/*
 	 * The number of threads to use
 	 */
@@ -55,11 +52,47 @@ public class PB_FilterContainedReads {
 	 */
 	static int LIMIT = 50;
 	
+	/*
+	 * Candidate minimizers estimated to occur in more than this many reads are left out of
+	 * candidate lookup and the index (0 to keep all of them).  The estimates come from a
+	 * count-min sketch with HH_DEPTH rows of 2^HH_WIDTH_BITS counters, filled in as reads are sketched.
+	 */
+	static int HEAVY_THRESHOLD = 0;
+	static int HH_WIDTH_BITS = 22;
+	static final int HH_DEPTH = 4;
+	static CountMinSketch heavyHitters;
+	static AtomicLong heavySkipped = new AtomicLong();
+	
 	/*
 	 * Input and output filenames
 	 */
 	static String fn, ofn;
 	
+	/*
+	 * If set, the full records of non-contained reads are written to this file
+	 */
+	static String emitFn = "";
+	
+	/*
+	 * If set, the sketches of all reads are loaded from this file when it was built from the same input
+	 * with the same sketch parameters, and otherwise written to it once they are computed
+	 */
+	static String cacheFn = "";
+	
+	/*
+	 * Whether reads keep their sequence and quality after sketching so their records can be
+	 * written back out, which is needed when the input is a stream that can't be reread
+	 */
+	static boolean keepRecords = false;
+	
+	/*
+	 * The genome size and coverage targets for length filtering.  Reads shorter than the cutoff
+	 * which gives PRE_COVERAGE x coverage are skipped before sketching, and if FINAL_COVERAGE is set,
+	 * only the longest non-contained reads making up that coverage are output.
+	 */
+	static long GENOME_SIZE = 0;
+	static double PRE_COVERAGE = 0, FINAL_COVERAGE = 0;
+	
 	/*
 	 * List of reads
 	 */
@@ -71,9 +104,15 @@ public class PB_FilterContainedReads {
 	static AtomicInteger processed;
 		
 	/*
-	 * The number of reads to assign each thread at a time
+	 * The number of reads to hand to a sketching thread at a time
+	 */
+	static 	int iter = 1000;
+	
+	/*
+	 * The maximum number of parsed batches waiting to be sketched, which bounds
+	 * the memory used by unsketched reads (defaults to twice the number of threads)
 	 */
-	static 	int iter = 5000;
+	static int QUEUE_DEPTH = 0;
 	
 	/*
 	 * The number of reads to process on a single thread before processing the rest in parallel
@@ -85,6 +124,11 @@ public class PB_FilterContainedReads {
 	 */
 	static ConcurrentHashMap<Long, ConcurrentLinkedDeque<Integer>> map;
 	
+	/*
+	 * The same index keyed on 32-bit fingerprints, used instead of map in fp32 mode
+	 */
+	static IntPostingIndex fpMap;
+	
 	/*
 	 * Whether or not each read is contained
 	 */
@@ -96,8 +140,9 @@ public class PB_FilterContainedReads {
 	static boolean fnOnly = false;
 	
 	/*
-	 * Output for debugging and analysis
+	 * Output for debugging and analysis, which is only written if requested
 	 */
+	static boolean debug = false;
 	static String debugFn = "containment_debug.txt";
 	static String[] debugLines;
 	
@@ -110,6 +155,53 @@ public class PB_FilterContainedReads {
 	
 	static FilterMethod method = FilterMethod.ADAPTIVE_THRESHOLD;
 	
+	/*
+	 * Possible kinds of primary sketch: (K1, W1) window minimizers or open syncmers of K1-mers
+	 * chosen with S1-mers.  The end sketches and candidate sketch are always window minimizers.
+	 */
+	static enum SketchType {
+			MINIMIZER, SYNCMER
+	};
+	
+	static SketchType sketchType = SketchType.MINIMIZER;
+	
+	/*
+	 * The s-mer length for syncmers, which defaults to giving about the same density as the (K1, W1) minimizers
+	 */
+	static int S1 = 0;
+	static boolean setS1 = false;
+	
+	/*
+	 * If true, each position contributes only its canonical kmer (the smaller of the forward and
+	 * reverse complement kmers) to the sketches instead of both strands
+	 */
+	static boolean canonical = false;
+	
+	/*
+	 * If true, the candidate sketch and index hold 32-bit fingerprints of the (K2, W2) minimizers
+	 * instead of the kmers themselves, which are exact for K2 <= 16 and hashes otherwise
+	 */
+	static boolean fp32 = false;
+	
+	/*
+	 * Reads longer than this many bases (if positive) have their candidate sketches down-sampled
+	 * to the kmers with density hash at most maxCandidateHash(), which keeps about
+	 * WINDOW_CANDIDATES of them per DENSITY_THRESHOLD bases.  Every read keeps the same kmers,
+	 * so a read of at least this length lying inside a longer one still shares candidates with it,
+	 * while shorter reads inside it may be missed.  The whole-read score against a read longer
+	 * than this uses the other read's kmers at density DENSITY_THRESHOLD / length, unless fewer
+	 * than MIN_SAMPLED_KMERS would be left.
+	 */
+	static int DENSITY_THRESHOLD = 0;
+	static final long FULL_DENSITY = (1L << 32) - 1;
+	static final int WINDOW_CANDIDATES = 20;
+	static final int MIN_SAMPLED_KMERS = 100;
+	
+	/*
+	 * If positive, kmers overlapping any base of a fastq record with phred quality below this are left out of the sketches
+	 */
+	static int MIN_QUALITY = 0;
+	
 @SuppressWarnings("resource")
 public static void main(String[] args) throws Exception
 {
@@ -134,90 +226,125 @@ public static void main(String[] args) throws Exception
 		return;
 	}
 	
-	// Initialize input reader and global variables
-	BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(fn)));
-	map = new ConcurrentHashMap<>();
-	rs = new ArrayList<Read>();
-	processed = new AtomicInteger();
+	if(ofn.equals(FastxReader.STDIO) && emitFn.equals(FastxReader.STDIO))
+	{
+		System.err.println("Error: the read names and records can't both be written to standard output");
+		return;
+	}
 	
-	// List of threads
-	ArrayList<MyThread> ts = new ArrayList<MyThread>();
+	// Standard input can only be read once, so records to emit are rebuilt from the reads in memory
+	boolean streaming = fn.equals(FastxReader.STDIO);
+	keepRecords = streaming && emitFn.length() > 0;
 	
-	// Keep track of which thread we are adding to and what range of reads to send it
-	int thread = 0;
-	int lastEnd = -1;
+	// Sketches can't be cached for a stream, which has nothing to identify it by
+	if(streaming && cacheFn.length() > 0)
+	{
+		System.err.println("Not using the sketch cache for standard input");
+		cacheFn = "";
+	}
 	
-	// Counter of how many reads have been input
-	int countInput = 0;
+	map = new ConcurrentHashMap<>();
+	fpMap = new IntPostingIndex(LIMIT);
+	if(fp32)
+	{
+		System.err.println(K2 <= 16 ? "Candidate fingerprints hold k2-mers exactly, so there are no false matches"
+			: "Candidate fingerprints are 32-bit hashes of k2-mers: any two different k2-mers falsely match with probability 2^-32");
+	}
+	rs = new ArrayList<Read>();
+	processed = new AtomicInteger();
+	if(HEAVY_THRESHOLD > 0) heavyHitters = new CountMinSketch(HH_DEPTH, HH_WIDTH_BITS);
 	
-	// Scan through reads and produce a sketch for each read
-	while(true)
+	// Load the sketches from the cache if it matches this input and these parameters
+	String cacheKey = cacheFn.length() > 0 ? ("input=" + SketchCache.fingerprint(fn) + " " + sketchKey()) : "";
+	boolean cached = cacheFn.length() > 0 && SketchCache.load(cacheFn, cacheKey, rs);
+	if(cached)
 	{
-		try 
+		System.err.println("Loaded sketches of " + rs.size() + " reads from " + cacheFn);
+		if(HEAVY_THRESHOLD > 0)
 		{
-			countInput++;
-			if(countInput%iter == 0)
+			for(Read r : rs) r.countCandidates();
+		}
+	}
+	else
+	{
+		// Find the length cutoff for the coverage target so that shorter reads are never sketched
+		long minLength = 0;
+		if(GENOME_SIZE > 0 && PRE_COVERAGE > 0 && !streaming)
+		{
+			FastxReader lengthInput = new FastxReader(fn, NUM_THREADS);
+			long[] hist = FilterLengths.lengthHistogram(lengthInput);
+			lengthInput.close();
+			minLength = FilterLengths.lengthCutoff(hist, (long)(GENOME_SIZE * PRE_COVERAGE));
+			System.err.println("Length cutoff for " + PRE_COVERAGE + "x coverage: " + minLength);
+		}
+		
+		// Initialize input reader
+		FastxReader input = new FastxReader(fn, NUM_THREADS);
+		
+		// Pipeline which sketches reads on worker threads as they are parsed
+		if(QUEUE_DEPTH <= 0) QUEUE_DEPTH = 2 * NUM_THREADS;
+		SketchPipeline<Read> sketcher = new SketchPipeline<Read>(NUM_THREADS, iter, QUEUE_DEPTH, Read::init);
+		
+		// Scan through reads and produce a sketch for each read
+		int skipped = 0;
+		while(input.next())
+		{
+			if(input.seqLen < minLength)
 			{
-				// End of batch so send to a thread to compute minimizers
-				int start = lastEnd + 1;
-				int end = countInput - 1;
-				lastEnd = end;
-				
-				// Check if max number of threads has been reached; if so, replace one with this one
-				if(ts.size() < NUM_THREADS)
-				{
-					ts.add(new MyThread(start, end, 0));
-					ts.get(ts.size() - 1).start();
-				}
-				else
-				{
-					int idx = thread%ts.size();
-					ts.get(idx).join();
-					ts.set(idx, new MyThread(start, end, 0));
-					ts.get(idx).start();
-				}
-				thread++;
-				System.err.println("Input " + countInput + " reads (threads = " + ts.size() + ")");
+				skipped++;
+				continue;
+			}
+		
+			// Add read to read list and queue it for sketching
+			Read cur = new Read(input.name(), new PackedSequence(input.seq, input.seqLen));
+			cur.offset = input.offset;
+			cur.recordLength = (int)input.recordLength;
+			if(keepRecords && input.fastq)
+			{
+				cur.qual = Arrays.copyOf(input.qual, input.qualLen);
+			}
+			if(MIN_QUALITY > 0)
+			{
+				cur.lowQuality = input.lowQualityRuns(MIN_QUALITY);
 			}
-			
-			// Add read to read list
-			String name = input.readLine(), read = input.readLine();
-			if(name.startsWith(">"))
+			rs.add(cur);
+			sketcher.add(cur);
+		
+			int countInput = rs.size();
+			if(countInput%iter == 0)
 			{
-				fastq = false;
-			}	
-			rs.add(new Read(name, read));
-			if(fastq)
-			{	
-				input.readLine();
-				input.readLine();
+				System.err.println("Input " + countInput + " reads (batches waiting = " + sketcher.backlog() + ")");
 			}
-		} 
-		catch(Exception e)
+		}
+		input.close();
+		if(skipped > 0)
 		{
-			break;
+			System.err.println("Skipped " + skipped + " reads shorter than " + minLength);
 		}
-	}
 		
-	// Finish partial batch at the end
-	int start = lastEnd + 1;
-	int end = rs.size() - 1;
-	if(ts.size() < NUM_THREADS)
-	{
-		ts.add(new MyThread(start, end, 0));
-		ts.get(ts.size() - 1).start();
-	}
-	else
-	{
-		int idx = thread%ts.size();
-		ts.get(idx).join();
-		ts.set(idx, new MyThread(start, end, 0));
-		ts.get(idx).start();
+		// Finish partial batch at the end and wait for all sketches to be built
+		sketcher.finish();
+		
+		if(cacheFn.length() > 0)
+		{
+			SketchCache.save(cacheFn, cacheKey, rs);
+			System.err.println("Saved sketches to " + cacheFn);
+		}
 	}
 	
-	// Wait for all threads to finish
-	for (MyThread th : ts) {
-	    th.join();
+	// Without a separate length pass over a stream, the length cutoff is applied once all reads are in
+	if(GENOME_SIZE > 0 && PRE_COVERAGE > 0 && streaming)
+	{
+		long[] hist = new long[1];
+		for(Read r : rs)
+		{
+			if(r.len >= hist.length) hist = Arrays.copyOf(hist, Math.max(r.len + 1, hist.length * 2));
+			hist[r.len]++;
+		}
+		long cutoff = FilterLengths.lengthCutoff(hist, (long)(GENOME_SIZE * PRE_COVERAGE));
+		int before = rs.size();
+		rs.removeIf(r -> r.len < cutoff);
+		System.err.println("Removed " + (before - rs.size()) + " reads shorter than " + cutoff + " for " + PRE_COVERAGE + "x coverage");
 	}
 	
 	// Sort reads by descending length
@@ -229,7 +356,15 @@ public static void main(String[] args) throws Exception
 	contained = new boolean[n];
 	debugLines = new String[n];
 	
+	// Each fingerprint lookup can falsely match any fingerprint in the index
+	long lookups = 0;
+	if(fp32)
+	{
+		for(Read r : rs) if(r.fp2 != null) lookups += r.fp2.length;
+	}
+	
 	// Process a batch initially to check all future reads against
+	PREPROCESS = Math.min(PREPROCESS, n);
 	for(int i = 0; i<PREPROCESS; i++) process(i);
 	
 	// Determine range of reads each thread will process
@@ -240,9 +375,10 @@ public static void main(String[] args) throws Exception
 	for(int i = 0; i<NUM_THREADS; i++) ends[i] = i == (NUM_THREADS - 1) ? n-1 : (starts[i+1] - 1);
 	
 	// Start all threads
+	ArrayList<MyThread> ts = new ArrayList<MyThread>();
 	for(int i = 0; i<NUM_THREADS; i++)
 	{
-		ts.set(i, new MyThread(starts[i], ends[i], 1));
+		ts.add(new MyThread(starts[i], ends[i]));
 		ts.get(i).start();
 	}
 	
@@ -251,31 +387,130 @@ public static void main(String[] args) throws Exception
 	    th.join();
 	}
 	
-	// Output names of non-contained reads
+	// Report how many reads were contained
 	int count = 0;
-	PrintWriter out = new PrintWriter(new File(ofn));
 	for(int i = 0; i<n; i++)
-		if(!contained[i])
-			out.println(rs.get(i).name);
-		else count++;
-	
-	// Output number contained and runtime
+		if(contained[i])
+			count++;
 	System.err.println(count + " contained out of " + n);
-	out.close();
+	if(fp32 && K2 > 16)
+	{
+		long keys = fpMap.size();
+		System.err.println("Expected false fingerprint matches: at most " + String.format("%.3g", lookups * (double)keys / (1L << 32))
+			+ " (" + lookups + " lookups against " + keys + " fingerprints)");
+	}
+	if(HEAVY_THRESHOLD > 0)
+	{
+		System.err.println("Skipped " + heavySkipped.get() + " lookups of candidate minimizers in more than " + HEAVY_THRESHOLD + " reads");
+	}
+	
+	// Write the names of the kept reads (unless no names file is wanted) and then their full records if emit= is set
+	boolean[] keep = selectOutput();
+	int kept = 0;
+	PrintWriter out = null;
+	if(ofn.equals(FastxReader.STDIO))
+	{
+		out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
+	}
+	else if(ofn.length() > 0)
+	{
+		out = new PrintWriter(new File(ofn));
+	}
+	for(int i = 0; i<n; i++)
+		if(keep[i])
+		{
+			if(out != null) out.println(rs.get(i).name);
+			kept++;
+		}
+	if(out != null) out.close();
+	
+	// Copy the records of output reads from the input without a second pass over the names
+	if(emitFn.length() > 0)
+	{
+		emitUncontained(keep, kept);
+	}
 	
 	long endTime = System.currentTimeMillis();
 	System.err.println("Time (ms): " + (endTime - startTime));
 
-	PrintWriter debugOut = new PrintWriter(new File("debug.txt"));
-	for(boolean b : contained) debugOut.println(b);
-	debugOut.close();
+	if(debug)
+	{
+		PrintWriter debugOut = new PrintWriter(new File("debug.txt"));
+		for(boolean b : contained) debugOut.println(b);
+		debugOut.close();
+		
+		debugOut = new PrintWriter(new File(debugFn));
+		for(String s : debugLines)
+		{
+			debugOut.println(s);
+		}
+		debugOut.close();
+	}
+}
+/*
+ * Writes the full records of all non-contained reads to the emit file, in input order
+ */
+static void emitUncontained(boolean[] keep, int kept) throws IOException
+{
+	Read[] out = new Read[kept];
+	int idx = 0;
+	for(int i = 0; i<rs.size(); i++)
+		if(keep[i])
+			out[idx++] = rs.get(i);
+	Arrays.sort(out, (a, b) -> Long.compare(a.offset, b.offset));
+	long[] offsets = new long[kept], lengths = new long[kept];
+	for(int i = 0; i<kept; i++)
+	{
+		offsets[i] = out[i].offset;
+		lengths[i] = out[i].recordLength;
+	}
+	boolean toStdout = emitFn.equals(FastxReader.STDIO);
+	FileOutputStream stream = toStdout ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(emitFn);
+	int written = kept;
+	if(keepRecords)
+	{
+		OutputStream buffered = new BufferedOutputStream(stream, 1 << 20);
+		for(Read r : out) r.writeRecord(buffered);
+		buffered.flush();
+	}
+	else
+	{
+		written = FastxReader.copyRecords(fn, NUM_THREADS, offsets, lengths, kept, stream.getChannel());
+	}
+	if(!toStdout) stream.close();
+	System.err.println("Wrote " + written + " reads to " + (toStdout ? "standard output" : emitFn));
+}
+/*
+ * Chooses which reads to output: every non-contained read, or if a final coverage is set,
+ * only the longest of them which together make up that coverage
+ */
+static boolean[] selectOutput()
+{
+	int n = rs.size();
+	boolean[] keep = new boolean[n];
+	for(int i = 0; i<n; i++) keep[i] = !contained[i];
+	if(GENOME_SIZE <= 0 || FINAL_COVERAGE <= 0 || n == 0)
+	{
+		return keep;
+	}
 	
-	debugOut = new PrintWriter(new File(debugFn));
-	for(String s : debugLines)
+	// Reads are sorted by descending length, so the first one is the longest
+	long[] hist = new long[rs.get(0).len + 1];
+	for(int i = 0; i<n; i++)
+		if(keep[i])
+			hist[rs.get(i).len]++;
+	long minLength = FilterLengths.lengthCutoff(hist, (long)(GENOME_SIZE * FINAL_COVERAGE));
+	int dropped = 0;
+	for(int i = 0; i<n; i++)
 	{
-		debugOut.println(s);
+		if(keep[i] && rs.get(i).len < minLength)
+		{
+			keep[i] = false;
+			dropped++;
+		}
 	}
-	debugOut.close();
+	System.err.println("Dropped " + dropped + " non-contained reads shorter than " + minLength + " to reach " + FINAL_COVERAGE + "x coverage");
+	return keep;
 }
 /*
  * Parse command line arguments
@@ -286,10 +521,11 @@ static void parseArgs(String[] args)
 	if(args[0].equals("help"))
 	{
 		System.out.println("Usage:\n");
-		System.out.println("  java PB_FilterContainedReads <readfile>\n");
+		System.out.println("  java PB_FilterContainedReads <readfile (fasta/fastq, optionally gzipped, or - for stdin)>\n");
 		System.out.println("Optional arguments:");
 		System.out.println("  nt=[num_threads (int)]");
-		System.out.println("  k1=[k1 (int)]");
+		System.out.println("  qd=[max batches of reads waiting to be sketched (int)]");
+		System.out.println("  k1=[k1, at most 28 (int)]");
 		System.out.println("  w1=[w1 (int)]");
 		System.out.println("  k2=[k2 (int)]");
 		System.out.println("  w2=[w2 (int)]");
@@ -297,12 +533,26 @@ static void parseArgs(String[] args)
 		System.out.println("  ct2=[containment_threshold2 (float)]");
 		System.out.println("  et=[error_threshold (float)]");
 		System.out.println("  lf=[length_filter (int)]");
-		System.out.println("  ofn=[output filename (string)]");
-		System.out.println("  dfn=[debug filename (string)]");
+		System.out.println("  gs=[genome size for coverage targets (int)]");
+		System.out.println("  cov=[coverage to keep before containment, skipping shorter reads (float)]");
+		System.out.println("  fcov=[coverage to keep after containment (float)]");
+		System.out.println("  ofn=[output filename, or - for stdout (string)]");
+		System.out.println("  emit=[filename to write the records of non-contained reads to, or - for stdout (string)]");
+		System.out.println("  dfn=[debug filename, which turns on debug output (string)]");
+		System.out.println("  cache=[file to load sketches from or save them to (string)]");
 		System.out.println("  rt=[repeat threshold (float)]");
 		System.out.println("  method=[filtering method (THRESHOLD, ADAPTIVE_THRESHOLD, or RECTANGLE)]");
+		System.out.println("  sketch=[primary sketch type (MINIMIZER or SYNCMER)]");
+		System.out.println("  s1=[s-mer length for syncmers, at most k1 (int)]");
+		System.out.println("  canonical");
+		System.out.println("  hh=[max reads sharing a candidate minimizer before it is ignored, or 0 for no limit (int)]");
+		System.out.println("  hhw=[log2 of the number of counters per row used to count candidate minimizers, at most 28 (int)]");
+		System.out.println("  fp32");
+		System.out.println("  dt=[read length beyond which candidate sketches are down-sampled, keeping enough to find contained reads this long (int)]");
+		System.out.println("  minq=[phred quality below which bases are masked from the sketches (int)]");
 		System.out.println("  fnonly");
 		System.out.println("  logging");
+		System.out.println("  debug");
 	}
 	fn = args[0];
 	for(int i = 1; i<args.length; i++)
@@ -311,6 +561,10 @@ static void parseArgs(String[] args)
 		{
 			NUM_THREADS = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
 		}
+		else if(args[i].startsWith("qd="))
+		{
+			QUEUE_DEPTH = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
 		else if(args[i].startsWith("k1="))
 		{
 			K1 = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
@@ -352,9 +606,22 @@ static void parseArgs(String[] args)
 		{
 			ofn = args[i].substring(1 + args[i].indexOf('='));
 		}
+		else if(args[i].startsWith("emit="))
+		{
+			emitFn = args[i].substring(1 + args[i].indexOf('='));
+		}
+		else if(args[i].startsWith("cache="))
+		{
+			cacheFn = args[i].substring(1 + args[i].indexOf('='));
+		}
 		else if(args[i].startsWith("dfn="))
 		{
 			debugFn = args[i].substring(1 + args[i].indexOf('='));
+			debug = true;
+		}
+		else if(args[i].equals("debug"))
+		{
+			debug = true;
 		}
 		else if(args[i].equals("fnonly"))
 		{
@@ -364,6 +631,14 @@ static void parseArgs(String[] args)
 		{
 			logging = true;
 		}
+		else if(args[i].equals("canonical"))
+		{
+			canonical = true;
+		}
+		else if(args[i].equals("fp32"))
+		{
+			fp32 = true;
+		}
 		else if(args[i].startsWith("method="))
 		{
 			String type = args[i].substring(1+args[i].indexOf('=')).toUpperCase();
@@ -380,15 +655,92 @@ static void parseArgs(String[] args)
 				method = FilterMethod.RECTANGLE;
 			}
 		}
+		else if(args[i].startsWith("sketch="))
+		{
+			String type = args[i].substring(1+args[i].indexOf('=')).toUpperCase();
+			if(type.equals("MINIMIZER"))
+			{
+				sketchType = SketchType.MINIMIZER;
+			}
+			else if(type.equals("SYNCMER"))
+			{
+				sketchType = SketchType.SYNCMER;
+			}
+		}
+		else if(args[i].startsWith("s1="))
+		{
+			setS1 = true;
+			S1 = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("minq="))
+		{
+			MIN_QUALITY = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("dt="))
+		{
+			DENSITY_THRESHOLD = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("hh="))
+		{
+			HEAVY_THRESHOLD = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("hhw="))
+		{
+			HH_WIDTH_BITS = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
+		}
 		else if(args[i].startsWith("lf="))
 		{
 			LENGTH_FILTER = Integer.parseInt(args[i].substring(1 + args[i].indexOf('=')));
 		}
+		else if(args[i].startsWith("gs="))
+		{
+			GENOME_SIZE = Long.parseLong(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("cov="))
+		{
+			PRE_COVERAGE = Double.parseDouble(args[i].substring(1 + args[i].indexOf('=')));
+		}
+		else if(args[i].startsWith("fcov="))
+		{
+			FINAL_COVERAGE = Double.parseDouble(args[i].substring(1 + args[i].indexOf('=')));
+		}
 	}
 	if(!setCt2)
 	{
 		CONTAINMENT_THRESHOLD2 = CONTAINMENT_THRESHOLD;
 	}
+	if(sketchType == SketchType.SYNCMER && S1 <= 0)
+	{
+		S1 = Math.max(1, K1 - W1);
+	}
+	String error = argumentError();
+	if(error != null)
+	{
+		System.err.println("Invalid arguments: " + error);
+		System.err.println("Run java PB_FilterContainedReads help for usage");
+		System.exit(1);
+	}
+}
+
+/*
+ * A description of the first argument which is out of range, or null if they are all valid
+ */
+static String argumentError()
+{
+	if(K1 < 1 || K1 > KmerCounts.MAX_K)
+	{
+		return "k1 must be between 1 and " + KmerCounts.MAX_K + " so that sketch counts fit beside each kmer, but is " + K1;
+	}
+	if(setS1 && (S1 <= 0 || S1 > K1))
+	{
+		return "s1 must be between 1 and k1 (" + K1 + "), but is " + S1;
+	}
+	int maxWidthBits = CountMinSketch.maxWidthBits(HH_DEPTH);
+	if(HH_WIDTH_BITS < 1 || HH_WIDTH_BITS > maxWidthBits)
+	{
+		return "hhw must be between 1 and " + maxWidthBits + ", but is " + HH_WIDTH_BITS;
+	}
+	return null;
 }
 /*
  * Process read with index i and check if it is contained
@@ -403,12 +755,12 @@ static void process(int i) throws Exception
 	// Set of other reads to check
 	HashSet<Integer> check = new HashSet<Integer>();
 	
-	if(rs.get(i) == null || rs.get(i).ms2 == null)
+	if(rs.get(i) == null || (fp32 ? rs.get(i).fp2 == null : rs.get(i).ms2 == null))
 	{
 		contained[i] = true;
 		return;
 	}
-	int sz = rs.get(i).ms2.length;
+	int sz = fp32 ? rs.get(i).fp2.length : rs.get(i).ms2.length;
 	if(sz == 0)
 	{
 		contained[i] = true;
@@ -423,18 +775,37 @@ static void process(int i) throws Exception
 	}
 	
 	// Find reads with shared (k2, w2) minimizer and add them to set of candidates
-	for(long x : rs.get(i).ms2)
+	if(fp32)
 	{
-		if(rs.get(i).repeats) break;
-		if(!map.containsKey(x)) continue;
-		if(map.get(x).size() == LIMIT)
+		if(!rs.get(i).repeats)
 		{
-			// Kmer seen too many times
-			//continue;
+			for(int x : rs.get(i).fp2)
+			{
+				if(isHeavy(x)) heavySkipped.incrementAndGet();
+				else fpMap.addPostingsTo(x, check);
+			}
 		}
-		for(int y : map.get(x))
+	}
+	else
+	{
+		for(long x : rs.get(i).ms2)
 		{
-			check.add(y);
+			if(rs.get(i).repeats) break;
+			if(isHeavy(x))
+			{
+				heavySkipped.incrementAndGet();
+				continue;
+			}
+			if(!map.containsKey(x)) continue;
+			if(map.get(x).size() == LIMIT)
+			{
+				// Kmer seen too many times
+				//continue;
+			}
+			for(int y : map.get(x))
+			{
+				check.add(y);
+			}
 		}
 	}
 	
@@ -495,42 +866,52 @@ static void process(int i) throws Exception
 	// If this read is not contained, let it be a candidate for future reads
 	//if(!contained[i])
 	{
-		for(long x : rs.get(i).ms2)
+		if(fp32)
 		{
-			if(!map.containsKey(x)) map.put(x, new ConcurrentLinkedDeque<Integer>());
-			if(map.get(x).size() < LIMIT)
+			for(int x : rs.get(i).fp2) if(!isHeavy(x)) fpMap.add(x, i);
+		}
+		else
+		{
+			for(long x : rs.get(i).ms2)
 			{
-				map.get(x).add(i);
+				if(isHeavy(x)) continue;
+				if(!map.containsKey(x)) map.put(x, new ConcurrentLinkedDeque<Integer>());
+				if(map.get(x).size() < LIMIT)
+				{
+					map.get(x).add(i);
+				}
 			}
 		}
 	}
 	rs.get(i).ms2 = null;
+	rs.get(i).fp2 = null;
 }
 
-static <T> void increment(TreeMap<T, Integer> map, T key)
+/*
+ * Whether a candidate minimizer (or fingerprint) is in too many reads to be worth looking up or indexing
+ */
+static boolean isHeavy(long x)
 {
-	map.put(key, 1 + (map.containsKey(key) ? map.get(key) : 0));
+	return HEAVY_THRESHOLD > 0 && heavyHitters.estimate(x) > HEAVY_THRESHOLD;
 }
 
 /*
- * Thread for computing minimizers or checking containment
+ * Thread for checking containment
  */
 static class MyThread extends Thread
 {
-	// Performs this phase's function (based on p) on reads in range [x, y]
-	int x, y, p;
+	// Checks containment of the reads in range [x, y]
+	int x, y;
 	
-	// phase 0 = compute minimizers; phase 1 = check containment
-	public MyThread(int i, int j, int phase)
+	public MyThread(int i, int j)
 	{
-		x = i; y = j; p = phase;
+		x = i; y = j;
 	}
 	public void run() {
 		 try {
 
 		      for(int i = x; i<=y; i++){
-		    	  if(p == 0) rs.get(i).init();
-		    	  else process(i);
+		    	  process(i);
 		      }
 
 		    } catch(Exception e) {
@@ -542,171 +923,141 @@ static class MyThread extends Thread
 }
 
 /*
- * Generate output filename based on input filename and parameters
+ * Describes every parameter which affects the sketches, for checking whether a sketch cache can be used
  */
-static void generateOutputFilename()
+static String sketchKey()
 {
-	ofn = fn + "." + K1 + "." + K2 + "." + W1 + "." + W2 + String.format("%.2f", CONTAINMENT_THRESHOLD); 
+	return "k1=" + K1 + " w1=" + W1 + " k2=" + K2 + " w2=" + W2 + " rt=" + REPEAT_THRESHOLD
+		+ " sketch=" + sketchType + " s1=" + S1 + " canonical=" + canonical + " fp32=" + fp32 + " dt=" + DENSITY_THRESHOLD + " minq=" + MIN_QUALITY + " gs=" + GENOME_SIZE + " cov=" + PRE_COVERAGE;
 }
 
 /*
- * Computes the (K, W) minimizers of a string s
+ * Generate output filename based on input filename and parameters
  */
-static long[][] getWindowMinimizers(String s, int K, int W, int endThreshold)
+static void generateOutputFilename()
 {
-	// String too short for any windows - return empty list
-	if(s.length() <= K + W) return  new long[][] {{},{}, {}};
-	
-	// Set to hold minimizers
-	TreeMap<Long, Integer> kmers = new TreeMap<Long, Integer>();
-	TreeMap<Long, Integer> startKmers = new TreeMap<Long, Integer>();
-	TreeMap<Long, Integer> endKmers = new TreeMap<Long, Integer>();
-		
-	// Current values of kmer and reverse complement
-	long[] ks = new long[2];
-	
-	// Current kmers and hashes in the window
-	long[] kWindow = new long[W<<1];
-	long[] vals = new long[W<<1];
-	
-	// Fill initial window
-	int idx = 0;
-	for(int i = 0; i<K+W; i++)
+	if(fn.equals(FastxReader.STDIO))
 	{
-		ks = updateKmers(K, ks, s.charAt(i));
-		if(i>=K)
-		{
-			for(int j = 0; j<2; j++)
-			{
-				kWindow[idx] = ks[j];
-				vals[idx] = hash(ks[j]);
-				idx++;
-				if(idx == vals.length) idx = 0;
-			}
-		}
+		// Names go to standard output unless the records are already being written there
+		ofn = emitFn.equals(FastxReader.STDIO) ? "" : FastxReader.STDIO;
+		return;
 	}
-	
-	// Add minimizer from first window
-	int bestIdx = 0;
-	for(int i = 1; i<vals.length; i++) if(vals[i] < vals[bestIdx]) bestIdx = i;
-	for(int i = 0; i<vals.length; i++)
+	ofn = fn + "." + K1 + "." + K2 + "." + W1 + "." + W2 + String.format("%.2f", CONTAINMENT_THRESHOLD); 
+	if(sketchType == SketchType.SYNCMER)
 	{
-		if(vals[i] == vals[bestIdx])
-		{
-			increment(kmers, kWindow[i]);
-			if(endThreshold > 0)
-			{
-				increment(startKmers, kWindow[i]);
-			}
-		}
+		ofn += ".sync" + S1;
 	}
-	
-	// Compute subsequent windows
-	for(int c = K+W; c<s.length(); c++)
+	if(canonical)
 	{
-		// Update window
-		ks = updateKmers(K, ks, s.charAt(c));
-		for(int j = 0; j<2; j++)
-		{
-			kWindow[idx] = ks[j];
-			vals[idx] = hash(ks[j]);
-			idx++;
-			if(idx == vals.length) idx = 0;
-		}
-		
-		// Add minimizer
-		bestIdx = 0;
-		for(int i = 1; i<vals.length; i++) if(vals[i] < vals[bestIdx]) bestIdx = i;
-		for(int i = 0; i<vals.length; i++) if(vals[i] == vals[bestIdx])
-		{
-			if(c - (K + W - 1) < endThreshold)
-			{
-				increment(startKmers, kWindow[i]);
-			}
-			if(s.length() - c - 1 < endThreshold)
-			{
-				increment(endKmers, kWindow[i]);
-			}
-			increment(kmers, kWindow[i]);
-		}
+		ofn += ".canon";
 	}
-		
-	// Convert set to array
-	long[] res = new long[kmers.size()*2];
-	idx = 0;
-	for(long x : kmers.keySet())
+	if(HEAVY_THRESHOLD > 0)
 	{
-		res[idx] = x;
-		res[idx+1] = kmers.get(x);
-		idx += 2;
+		ofn += ".hh" + HEAVY_THRESHOLD;
 	}
-		
-	long[] start = new long[startKmers.size()*2];
-	long[] end = new long[endKmers.size()*2];
-	idx = 0;
-	for(long x : startKmers.keySet())
+	if(DENSITY_THRESHOLD > 0)
 	{
-		start[idx] = x;
-		start[idx+1] = startKmers.get(x);
-		idx += 2;
+		ofn += ".dt" + DENSITY_THRESHOLD;
 	}
-	idx = 0;
-	for(long x : endKmers.keySet())
+	if(MIN_QUALITY > 0)
 	{
-		end[idx] = x;
-		end[idx+1] = endKmers.get(x);
-		idx += 2;
+		ofn += ".q" + MIN_QUALITY;
 	}
-	
-	return new long[][] {res, start, end};
 }
 
 /*
- * Updates a sliding kmer and its reverse complement based on the next character
+ * The bits of the mixed value kept as the hash
+ */
+static final long HASH_MASK = (1L << 32) - 1;
+
+/*
+ * Hashes a values into a pseudorandom 32-bit integer for min hash
  */
-static long[] updateKmers(int K, long[] kmers, char c)
+static long hash(long val)
 {
-	long first = kmers[0] & ((1L << (2*K - 2)) - 1);
-	first = (first << 2) | map(c);
-	long second = kmers[1] >> 2;
-	second = second | ((map(c) ^ 3) << (2*K-2));
-	return new long[] {first, second};
+	return BatchHasher.mix(val) & HASH_MASK;
 }
 
 /*
- * Maps a nucleotide into a value in [0, 3]
+ * The largest density hash kept when sampling a sketch for a read of the given length, which keeps
+ * about DENSITY_THRESHOLD / length of its kmers
  */
-static int map(char c)
+static long maxDensityHash(int length)
 {
-	if(c == 'A') return 0;
-	else if(c == 'C') return 1;
-	else if(c == 'G') return 2;
-	else return 3;
+	return (long)((FULL_DENSITY + 1.0) * DENSITY_THRESHOLD / length) - 1;
 }
 
 /*
- * Hashes a values into a pseudorandom 32-bit integer for min hash
+ * The entries of a packed (K1) sketch whose kmers have density hash at most maxDensityHash(length),
+ * or the whole sketch if that keeps fewer than MIN_SAMPLED_KMERS, in which case it is small
+ * enough to score exactly
  */
-static long hash(long val)
+static long[] sampleSketch(long[] sketch, int length)
 {
-	long m = 32;
-	long x = (~val + (val << 21));
-	x = x ^ (x >> 24);
-	x = (x + (x<<3) + (x<<8));
-	x = x ^ (x >> 14);
-	x = (x + (x<<2) + (x<<4));
-	x = x ^ (x >> 28);
-	x = (x + (x << 31)) & ((1L<<m)-1);
-	return x;
+	long maxHash = maxDensityHash(length);
+	long[] res = new long[sketch.length];
+	int kept = 0;
+	for(long x : sketch)
+	{
+		if(KmerCounts.densityHash(KmerCounts.kmer(x, K1)) <= maxHash) res[kept++] = x;
+	}
+	return kept < MIN_SAMPLED_KMERS ? sketch : Arrays.copyOf(res, kept);
 }
 
-static long[] everyOther(long[] a)
+/*
+ * The largest density hash kept in down-sampled candidate sketches, at which a stretch of
+ * DENSITY_THRESHOLD bases keeps about WINDOW_CANDIDATES of its 2 / (W2 + 1) candidates per base
+ */
+static long maxCandidateHash()
+{
+	double fraction = WINDOW_CANDIDATES * (W2 + 1) / (2.0 * DENSITY_THRESHOLD);
+	return (long)Math.min(FULL_DENSITY, (FULL_DENSITY + 1.0) * fraction - 1);
+}
+
+/*
+ * The kmers of a read's sorted candidate sketch kept when it is down-sampled
+ */
+static long[] sampleCandidates(long[] kmers)
 {
-	int n = a.length/2;
-	long[] res = new long[n];
-	for(int i = 0; i<n; i++) res[i] = a[2*i];
-	return res;
+	long maxHash = maxCandidateHash();
+	long[] res = new long[kmers.length];
+	int kept = 0;
+	for(long x : kmers) if(KmerCounts.densityHash(x) <= maxHash) res[kept++] = x;
+	return Arrays.copyOf(res, kept);
 }
+
+/*
+ * The sorted distinct 32-bit fingerprints of a list of kmers, which are the kmers themselves
+ * if they fit and otherwise the high bits of their mixed values, since the low bits were
+ * used to choose them as minimizers and so are biased toward small values
+ */
+static int[] fingerprints(long[] kmers, int k)
+{
+	int[] res = new int[kmers.length];
+	for(int i = 0; i<kmers.length; i++)
+	{
+		res[i] = k <= 16 ? (int)kmers[i] : (int)(BatchHasher.mix(kmers[i]) >>> 32);
+	}
+	Arrays.sort(res);
+	int distinct = 0;
+	for(int i = 0; i<res.length; i++) if(i == 0 || res[i] != res[i-1]) res[distinct++] = res[i];
+	return Arrays.copyOf(res, distinct);
+}
+
+/*
+ * The smaller of a kmer and its reverse complement
+ */
+static long canonicalKmer(long kmer, int k)
+{
+	long rc = 0, x = kmer;
+	for(int i = 0; i<k; i++)
+	{
+		rc = (rc << 2) | ((x & 3) ^ 3);
+		x >>= 2;
+	}
+	return Math.min(kmer, rc);
+}
+
 /*
  * A class representing a genomic read and its sketch(es)
  */
@@ -715,13 +1066,16 @@ static class Read implements Comparable<Read>
 	// The name of the read
 	String name;
 	
-	// The primary sketch
+	// The primary sketch, with each kmer packed with its count as in KmerCounts
 	long[] ms;
 	
 	// The secondary sketch used to find candidates
 	long[] ms2;
 	
-	// The sketches around the ends of the read
+	// The sorted distinct fingerprints of the secondary sketch, used instead of it in fp32 mode
+	int[] fp2;
+	
+	// The sketches around the ends of the read, packed the same way
 	long[] starts;
 	long[] ends;
 	long[] starts2;
@@ -730,33 +1084,54 @@ static class Read implements Comparable<Read>
 	// The length of the read (bp)
 	int len;
 	
+	// Where the read's record starts in the (decompressed) input and how many bytes it spans
+	long offset;
+	int recordLength;
+	
 	boolean repeats;
 	
-	// The content of the read, which is removed once sketches are built
-	String line;
+	// The bases of the read packed 2 bits per base, which are removed once sketches are built
+	// unless the record has to be written back out
+	PackedSequence line;
+	
+	// The quality string of a fastq record, only kept if the record has to be written back out
+	byte[] qual;
+	
+	// The runs of low-quality bases to mask from the sketches, which are removed once sketches are built
+	int[] lowQuality;
 	
-	// Takes as input two lines of a fasta/fastq file
-	Read(String l1, String l2)
+	// Takes as input the header (without '>' or '@') and packed sequence of a fasta/fastq record
+	Read(String n, PackedSequence s)
 	{
-		name = l1.substring(1);
-		line = l2;
-		len = l2.length();
+		name = n;
+		line = s;
+		len = s.length;
+	}
+	
+	// Makes a read whose sketches are filled in separately, such as from a sketch cache
+	Read(String n, int length)
+	{
+		name = n;
+		len = length;
 	}
 	
 	// Initialize read by building sketches
 	void init()
 	{
-		line = line.toUpperCase();
-		long[][] k1w1Mini = getWindowMinimizers(line, K1, W1, 500);	
-		ms = k1w1Mini[0];
+		// Build the (K1, W1) sketches, the (K1, 1) end sketches, and the (K2, W2) candidate sketch in one pass
+		int s = sketchType == SketchType.SYNCMER ? S1 : 0;
+		long[][] sketches = MinimizerSketcher.LOCAL.get().sketchRead(line, K1, W1, s, 500, 100, K2, W2, canonical, lowQuality);
+		lowQuality = null;
+		ms = sketches[0];
 		int repeatCount = 0, totCount = 0;
-		for(int i = 1; i<ms.length; i+=2)
+		for(int i = 0; i<ms.length; i++)
 		{
-			totCount += ms[i];
-			if(ms[i] > 10)
+			int count = KmerCounts.count(ms[i], K1);
+			totCount += count;
+			if(count > 10)
 			{
-				repeatCount += ms[i];
-				ms[i] = 1;
+				repeatCount += count;
+				ms[i] = KmerCounts.withCount(ms[i], 1, K1);
 			}
 		}
 		if(repeatCount > REPEAT_THRESHOLD * totCount)
@@ -765,16 +1140,55 @@ static class Read implements Comparable<Read>
 		}
 		if(repeatCount > REPEAT_THRESHOLD * totCount)
 		{
-			System.out.println("Repeat read: " +name+" with repetitiveness "+1.0 * repeatCount / totCount + " (needed " + REPEAT_THRESHOLD + ")");
+			System.err.println("Repeat read: " +name+" with repetitiveness "+1.0 * repeatCount / totCount + " (needed " + REPEAT_THRESHOLD + ")");
+		}
+		starts2 = sketches[3];
+		ends2 = sketches[4];
+		starts = sketches[1];
+		ends = sketches[2];
+		ms2 = sketches[5];
+		if(DENSITY_THRESHOLD > 0 && len > DENSITY_THRESHOLD)
+		{
+			ms2 = sampleCandidates(ms2);
+		}
+		if(fp32)
+		{
+			fp2 = fingerprints(ms2, K2);
+			ms2 = null;
+		}
+		countCandidates();
+		if(!keepRecords) line = null;
+	}
+	
+	// Adds each distinct candidate minimizer of the read to the global frequency estimates
+	void countCandidates()
+	{
+		if(HEAVY_THRESHOLD <= 0) return;
+		if(fp32)
+		{
+			for(int x : fp2) heavyHitters.add(x);
+		}
+		else
+		{
+			for(long x : ms2) heavyHitters.add(x);
+		}
+	}
+	
+	// Writes the read as a fasta or fastq record with its sequence on a single line
+	void writeRecord(OutputStream out) throws IOException
+	{
+		out.write(qual == null ? '>' : '@');
+		out.write(name.getBytes(StandardCharsets.ISO_8859_1));
+		out.write('\n');
+		out.write(line.unpack());
+		out.write('\n');
+		if(qual != null)
+		{
+			out.write('+');
+			out.write('\n');
+			out.write(qual);
+			out.write('\n');
 		}
-		long[][] k1Mini = getWindowMinimizers(line, K1, 1, 100);
-		starts2 = k1Mini[1];
-		ends2 = k1Mini[2];
-		starts = k1w1Mini[1];
-		ends = k1w1Mini[2];
-		long[][] k2w2Mini = getWindowMinimizers(line, K2, W2, 500);
-		ms2 = everyOther(k2w2Mini[0]);
-		line = null;
 	}
 	
 	// Check if this read contains another read based on shared proportion of primary sketch
@@ -964,12 +1378,17 @@ static class Read implements Comparable<Read>
 	
 	static double compareErrorKmers(long[] error, long[] database, int k)
 	{
+		// An empty end sketch, such as one whose bases were all masked, gives no evidence of containment
+		if(error.length == 0)
+		{
+			return 0;
+		}
 		ArrayList<IndexedKmer> errored = new ArrayList<IndexedKmer>();
 		HashSet<Long> usedKmers = new HashSet<Long>();
-		for(int index = 0; index < error.length; index+=2)
+		for(int index = 0; index < error.length; index++)
 		{
-			long e = error[index];
-			int count = (int)error[index+1];
+			long e = KmerCounts.kmer(error[index], k);
+			int count = KmerCounts.count(error[index], k);
 			for(int i = 0; i<k; i++)
 			{
 				for(int newBase = 0; newBase < 4; newBase++)
@@ -982,35 +1401,37 @@ static class Read implements Comparable<Read>
 						continue;
 					}
 					newHash = newHash + add - sub;
+					if(canonical)
+					{
+						// The database only holds canonical kmers
+						newHash = canonicalKmer(newHash, k);
+					}
 					if(usedKmers.contains(newHash))
 					{
 						continue;
 					}
 					usedKmers.add(newHash);
-					errored.add(new IndexedKmer(newHash, count, index/2));
+					errored.add(new IndexedKmer(newHash, count, index));
 				}
 			}
 		}
 		Collections.sort(errored);
-		int n = errored.size(), m = database.length, i = 0, j = 0;
-		long[] count = new long[error.length/2];
-		int common = 0, totCount = 0;
-		while(i < n && j < m)
-		{
-			long a = errored.get(i).kmer, b = database[j];
-			if(a < b) i++;
-			else if(a > b) j+=2;
-			else
+
+		// The database is usually the whole sketch of a much longer read, so each variant is looked up in it
+		int n = errored.size(), m = database.length, i = 0, j = 0, shift = KmerCounts.countBits(k);
+		long[] count = new long[error.length];
+		int common = 0, totCount = KmerCounts.totalCount(error, k);
+		for(; i < n; i++)
+		{
+			long a = errored.get(i).kmer;
+			j = KmerCounts.seek(database, j, a, shift);
+			if(j == m) break;
+			if(KmerCounts.kmer(database[j], k) == a)
 			{
-				count[errored.get(i).index] += Math.min(errored.get(i).count, database[j+1]);
-				i++;
+				count[errored.get(i).index] += Math.min(errored.get(i).count, KmerCounts.count(database[j], k));
 			}
 		}
 		
-		for(i = 1; i<error.length; i+=2)
-		{
-			totCount += error[i];
-		}
 		for(i = 0; i<count.length; i++)
 		{
 			common += count[i];
@@ -1052,61 +1473,21 @@ static class Read implements Comparable<Read>
 	double[] containmentScore(Read r)
 	{
 		double[] res = new double[3];
-		int common = 0, n = ms.length, m = r.ms.length;
-		int i = 0, j = 0;
-		while(i < n && j < m)
-		{
-			long a = ms[i], b = r.ms[j];
-			if(a < b) i+=2;
-			else if(a > b) j+=2;
-			else
-			{
-				common+=Math.min(ms[i+1], r.ms[j+1]);
-				i+=2;
-				j+=2;
-			}
-		}
+		int idx = 0;
 		
-		int totCount = 0;
-		for(j = 0; j<m; j += 2)
+		// Against a long container, the whole-read score uses only the kmers sampled at its density
+		long[] body = r.ms;
+		if(DENSITY_THRESHOLD > 0 && len > DENSITY_THRESHOLD)
 		{
-			totCount += r.ms[j+1];
+			body = sampleSketch(r.ms, len);
 		}
-		
-		res[0] = 1.0 * common / totCount;
-		
-		int idx = 1;
-		
-		for(long[] x : new long[][]{r.starts, r.ends})
+		for(long[] x : new long[][]{body, r.starts, r.ends})
 		{
-		
-			common = 0;
-			n = ms.length;
-			m = x.length;
-			i = j = 0;
-			while(i < n && j < m)
-			{
-				long a = ms[i], b = x[j];
-				if(a < b) i+=2;
-				else if(a > b) j+=2;
-				else
-				{
-					common+=Math.min(ms[i+1], x[j+1]);
-					i+=2;
-					j+=2;
-				}
-			}
-			
-			totCount = 0;
-			for(j = 0; j<m; j += 2)
-			{
-				totCount += x[j+1];
-			}
-			
-			res[idx] = 1.0 * common / totCount;
+			// An empty sketch gives no evidence of containment
+			int total = KmerCounts.totalCount(x, K1);
+			res[idx] = total == 0 ? 0 : 1.0 * KmerCounts.commonCount(ms, x, K1) / total;
 			idx++;
 		}
-		
 		return res;
 	}
 	
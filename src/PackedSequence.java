@@ -0,0 +1,97 @@
+/*
+ * A nucleotide sequence stored with 2 bits per base (32 bases per long)
+ * Bases other than A, C, G, and T are packed as T, which is how the sketching code has
+ * always treated them, and their original characters are kept in a side list so the
+ * sequence can be restored exactly (apart from case)
+ */
+import java.util.Arrays;
+public class PackedSequence {
+
+	/*
+	 * Maps each byte to its 2-bit code, or -1 if it is not a (case-insensitive) A, C, G, or T
+	 */
+	static final byte[] CODES = new byte[256];
+	static
+	{
+		Arrays.fill(CODES, (byte)-1);
+		CODES['A'] = CODES['a'] = 0;
+		CODES['C'] = CODES['c'] = 1;
+		CODES['G'] = CODES['g'] = 2;
+		CODES['T'] = CODES['t'] = 3;
+	}
+
+	static final byte[] BASES = new byte[] {'A', 'C', 'G', 'T'};
+
+	/*
+	 * The packed bases, with base i in bits 2*(i%32) and 2*(i%32)+1 of bits[i/32]
+	 */
+	long[] bits;
+
+	/*
+	 * The number of bases in the sequence
+	 */
+	int length;
+
+	/*
+	 * The positions and original characters of ambiguous bases, or null if there are none
+	 */
+	int[] otherPositions;
+	byte[] otherBases;
+
+	/*
+	 * Packs the first n characters of s
+	 */
+	PackedSequence(byte[] s, int n)
+	{
+		length = n;
+		bits = new long[(n + 31) >>> 5];
+		int others = 0;
+		for(int i = 0; i<n; i++)
+		{
+			int code = CODES[s[i] & 0xff];
+			if(code < 0)
+			{
+				code = 3;
+				others++;
+			}
+			bits[i >>> 5] |= (long)code << ((i & 31) << 1);
+		}
+		if(others > 0)
+		{
+			otherPositions = new int[others];
+			otherBases = new byte[others];
+			int idx = 0;
+			for(int i = 0; i<n; i++)
+			{
+				if(CODES[s[i] & 0xff] < 0)
+				{
+					otherPositions[idx] = i;
+					otherBases[idx] = s[i];
+					idx++;
+				}
+			}
+		}
+	}
+
+	/*
+	 * The 2-bit code of the base at position i
+	 */
+	int get(int i)
+	{
+		return (int)(bits[i >>> 5] >>> ((i & 31) << 1)) & 3;
+	}
+
+	/*
+	 * Restores the sequence as uppercase characters with ambiguous bases in place
+	 */
+	byte[] unpack()
+	{
+		byte[] res = new byte[length];
+		for(int i = 0; i<length; i++) res[i] = BASES[get(i)];
+		if(otherPositions != null)
+		{
+			for(int i = 0; i<otherPositions.length; i++) res[otherPositions[i]] = otherBases[i];
+		}
+		return res;
+	}
+}
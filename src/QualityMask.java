@@ -0,0 +1,52 @@
+/*
+ * Tracks which kmers of a read overlap low-quality bases as the read is scanned from start to end
+ *
+ * The low-quality bases are given as runs, the start and (exclusive) end of each run in order, as
+ * returned by FastxReader.lowQualityRuns.  A kmer ending at position i overlaps a low-quality base
+ * if the last such base at or before i is within the kmer.
+ */
+public class QualityMask {
+
+	int[] runs = new int[0];
+
+	/*
+	 * The index in runs of the first run which doesn't end before the current position
+	 */
+	int next;
+
+	/*
+	 * The last low-quality position at or before the current position, or -1 if there isn't one
+	 */
+	int lastLow;
+
+	/*
+	 * Starts a new read with the given runs, which may be null if nothing is masked
+	 */
+	void reset(int[] runs)
+	{
+		this.runs = runs == null ? new int[0] : runs;
+		next = 0;
+		lastLow = -1;
+	}
+
+	/*
+	 * Moves to position i, which must not be before the last position given
+	 */
+	void advance(int i)
+	{
+		while(next < runs.length && runs[next + 1] <= i)
+		{
+			lastLow = runs[next + 1] - 1;
+			next += 2;
+		}
+		if(next < runs.length && runs[next] <= i) lastLow = i;
+	}
+
+	/*
+	 * Whether the kmer ending at the current position i overlaps a low-quality base
+	 */
+	boolean masked(int i, int k)
+	{
+		return lastLow > i - k;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * A binary file holding the sketches of every read in a dataset, so that later runs with the same
+ * input and sketch parameters can skip parsing and sketching the reads
+ *
+ * The file starts with a magic string, a format version, the key the sketches were built with
+ * (a fingerprint of the input plus the sketch parameters), and the number of reads.  Each read
+ * follows as its size in bytes, name, length, record offset and length, repeat flag, each
+ * sketch as a length followed by its values, and the candidate fingerprints the same way (empty
+ * unless they are used).  The file is memory-mapped a chunk at a time when
+ * it is read, and a read never spans two chunks.
+ */
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+public class SketchCache {
+
+	static final String MAGIC = "PBSKETCH";
+
+	/*
+	 * Bumped whenever the layout of a read or the way its sketches are built changes
+	 */
+	static final int VERSION = 6;
+
+	/*
+	 * The largest region of the file mapped at a time
+	 */
+	static final long MAP_CHUNK = 1L << 30;
+
+	/*
+	 * Identifies an input file by its length, modification time, and a hash of its first megabyte
+	 */
+	static String fingerprint(String fn) throws IOException
+	{
+		File f = new File(fn);
+		byte[] buf = new byte[1 << 20];
+		int len = 0;
+		try(InputStream in = new FileInputStream(f))
+		{
+			int read;
+			while(len < buf.length && (read = in.read(buf, len, buf.length - len)) != -1) len += read;
+		}
+		return f.length() + ":" + f.lastModified() + ":" + Long.toHexString(NameSet.fingerprint(buf, 0, len));
+	}
+
+	/*
+	 * Writes the sketches of all reads along with the key they were built with.  The file is written
+	 * under a temporary name and then moved into place, so a partly written cache is never loaded
+	 * even when several runs build the same cache at once.
+	 */
+	static void save(String cacheFn, String key, ArrayList<PB_FilterContainedReads.Read> rs) throws IOException
+	{
+		File target = new File(cacheFn).getAbsoluteFile();
+		File tmp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20));
+		out.write(MAGIC.getBytes(StandardCharsets.ISO_8859_1));
+		out.writeInt(VERSION);
+		byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(keyBytes.length);
+		out.write(keyBytes);
+		out.writeInt(rs.size());
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		DataOutputStream recordOut = new DataOutputStream(record);
+		for(PB_FilterContainedReads.Read r : rs)
+		{
+			record.reset();
+			byte[] name = r.name.getBytes(StandardCharsets.ISO_8859_1);
+			recordOut.writeInt(name.length);
+			recordOut.write(name);
+			recordOut.writeInt(r.len);
+			recordOut.writeLong(r.offset);
+			recordOut.writeInt(r.recordLength);
+			recordOut.writeBoolean(r.repeats);
+			for(long[] sketch : new long[][] {r.ms, r.starts, r.ends, r.starts2, r.ends2, r.ms2})
+			{
+				if(sketch == null) sketch = new long[0];
+				recordOut.writeInt(sketch.length);
+				for(long x : sketch) recordOut.writeLong(x);
+			}
+			int[] fp = r.fp2 == null ? new int[0] : r.fp2;
+			recordOut.writeInt(fp.length);
+			for(int x : fp) recordOut.writeInt(x);
+			recordOut.flush();
+			out.writeInt(record.size());
+			record.writeTo(out);
+		}
+		out.close();
+		Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/*
+	 * Reads the sketches from a cache file into the list of reads, returning false
+	 * without changing the list if the file doesn't exist, was built with a different key,
+	 * or is truncated or corrupt, so that the sketches are rebuilt
+	 */
+	static boolean load(String cacheFn, String key, ArrayList<PB_FilterContainedReads.Read> rs) throws IOException
+	{
+		File f = new File(cacheFn);
+		if(!f.exists()) return false;
+		try(FileChannel channel = new RandomAccessFile(f, "r").getChannel())
+		{
+			long size = channel.size();
+			long start = 0;
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, size));
+
+			// Check the header
+			byte[] magic = new byte[MAGIC.length()];
+			if(buf.remaining() < magic.length + 4) return false;
+			buf.get(magic);
+			if(!new String(magic, StandardCharsets.ISO_8859_1).equals(MAGIC) || buf.getInt() != VERSION) return false;
+			int keyLength = buf.getInt();
+			if(keyLength < 0 || keyLength > buf.remaining() - 4) return false;
+			byte[] keyBytes = new byte[keyLength];
+			buf.get(keyBytes);
+			if(!new String(keyBytes, StandardCharsets.UTF_8).equals(key)) return false;
+			int n = buf.getInt();
+			if(n < 0 || n > size / 4) return false;
+
+			ArrayList<PB_FilterContainedReads.Read> res = new ArrayList<PB_FilterContainedReads.Read>(n);
+			for(int i = 0; i<n; i++)
+			{
+				// Map the next chunk if the whole read isn't in this one
+				if(buf.remaining() < 4 || buf.remaining() < 4 + buf.getInt(buf.position()))
+				{
+					start += buf.position();
+					buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_CHUNK, size - start));
+				}
+				if(buf.remaining() < 4) return false;
+				int recordSize = buf.getInt();
+				if(recordSize < 0 || recordSize > buf.remaining()) return false;
+
+				// Decode the read from a view of exactly its own bytes, which it must use up
+				ByteBuffer record = buf.slice(buf.position(), recordSize);
+				res.add(readRecord(record));
+				if(record.hasRemaining()) return false;
+				buf.position(buf.position() + recordSize);
+			}
+			rs.addAll(res);
+		}
+		catch(BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e)
+		{
+			// A length in the file doesn't match the data after it
+			return false;
+		}
+		return true;
+	}
+
+	static PB_FilterContainedReads.Read readRecord(ByteBuffer buf)
+	{
+		byte[] name = new byte[readLength(buf, 1)];
+		buf.get(name);
+		PB_FilterContainedReads.Read r = new PB_FilterContainedReads.Read(new String(name, StandardCharsets.ISO_8859_1), buf.getInt());
+		r.offset = buf.getLong();
+		r.recordLength = buf.getInt();
+		r.repeats = buf.get() != 0;
+		r.ms = readSketch(buf);
+		r.starts = readSketch(buf);
+		r.ends = readSketch(buf);
+		r.starts2 = readSketch(buf);
+		r.ends2 = readSketch(buf);
+		r.ms2 = readSketch(buf);
+		r.fp2 = new int[readLength(buf, 4)];
+		buf.asIntBuffer().get(r.fp2);
+		buf.position(buf.position() + 4 * r.fp2.length);
+		return r;
+	}
+
+	static long[] readSketch(ByteBuffer buf)
+	{
+		long[] res = new long[readLength(buf, 8)];
+		buf.asLongBuffer().get(res);
+		buf.position(buf.position() + 8 * res.length);
+		return res;
+	}
+
+	/*
+	 * Reads the number of values in an array, checking that that many values of the given size are left
+	 */
+	static int readLength(ByteBuffer buf, int bytesEach)
+	{
+		int n = buf.getInt();
+		if(n < 0 || (long)n * bytesEach > buf.remaining()) throw new BufferUnderflowException();
+		return n;
+	}
+}
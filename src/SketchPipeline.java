@@ -0,0 +1,131 @@
+/*
+ * Passes batches of parsed reads from a single producer to a fixed pool of worker threads
+ * through a bounded queue, so parsing overlaps with sketching and the producer blocks once
+ * the queue is full rather than letting unsketched reads pile up in memory
+ */
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+public class SketchPipeline<T> {
+
+	/*
+	 * Batches waiting for a worker; an empty batch tells a worker to stop
+	 */
+	ArrayBlockingQueue<ArrayList<T>> queue;
+
+	/*
+	 * The batch currently being filled by the producer
+	 */
+	ArrayList<T> batch;
+	int batchSize;
+
+	Thread[] workers;
+
+	/*
+	 * The first error thrown while processing an item, after which workers only drain the queue
+	 */
+	volatile Throwable failure;
+
+	/*
+	 * @param threads the number of worker threads
+	 * @param batchSize the number of items handed to a worker at a time
+	 * @param depth the maximum number of full batches waiting for a worker
+	 * @param work the function applied to every item
+	 */
+	SketchPipeline(int threads, int batchSize, int depth, Consumer<T> work)
+	{
+		this.batchSize = batchSize;
+		queue = new ArrayBlockingQueue<ArrayList<T>>(Math.max(1, depth));
+		batch = new ArrayList<T>(batchSize);
+		workers = new Thread[threads];
+		for(int i = 0; i<threads; i++)
+		{
+			workers[i] = new Thread(() -> {
+				try
+				{
+					while(true)
+					{
+						ArrayList<T> cur = queue.take();
+						if(cur.isEmpty()) break;
+						for(T x : cur)
+						{
+							if(failure != null) break;
+							try
+							{
+								work.accept(x);
+							}
+							catch(Throwable e)
+							{
+								// Keep taking batches so the producer never blocks on a full queue
+								synchronized(this)
+								{
+									if(failure == null) failure = e;
+								}
+							}
+						}
+					}
+				}
+				catch(InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			});
+			workers[i].start();
+		}
+	}
+
+	/*
+	 * Adds an item, blocking if the workers are too far behind
+	 */
+	void add(T x) throws InterruptedException
+	{
+		rethrowFailure();
+		batch.add(x);
+		if(batch.size() == batchSize)
+		{
+			queue.put(batch);
+			batch = new ArrayList<T>(batchSize);
+		}
+	}
+
+	/*
+	 * The number of full batches waiting for a worker
+	 */
+	int backlog()
+	{
+		return queue.size();
+	}
+
+	/*
+	 * Hands off the final partial batch and waits for every item to be processed
+	 */
+	void finish() throws InterruptedException
+	{
+		if(!batch.isEmpty())
+		{
+			queue.put(batch);
+			batch = new ArrayList<T>();
+		}
+		for(int i = 0; i<workers.length; i++)
+		{
+			queue.put(new ArrayList<T>());
+		}
+		for(Thread t : workers)
+		{
+			t.join();
+		}
+		rethrowFailure();
+	}
+
+	/*
+	 * Throws the error a worker hit, if any, in the calling thread
+	 */
+	void rethrowFailure()
+	{
+		Throwable e = failure;
+		if(e == null) return;
+		if(e instanceof Error) throw (Error)e;
+		if(e instanceof RuntimeException) throw (RuntimeException)e;
+		throw new RuntimeException("Sketching failed", e);
+	}
+}
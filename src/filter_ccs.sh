@@ -14,6 +14,6 @@ else
 fi
 
 javac *.java
-readlistfile=`java -Xmx64G HashContainment $READS_FILE $FREQ_MINIMIZERS $K $THRESHOLD seed=$SAMPLES limit=$LIMIT threads=$THREADS preprocess=$PREPROCESS`
-java ExtractReads $readlistfile $READS_FILE
+readlistfile=`java HashContainment $READS_FILE $FREQ_MINIMIZERS $K $THRESHOLD seed=$SAMPLES limit=$LIMIT --fnOnly`
+java -Xmx64G HashContainment $READS_FILE $FREQ_MINIMIZERS $K $THRESHOLD seed=$SAMPLES limit=$LIMIT threads=$THREADS preprocess=$PREPROCESS emit=$readlistfile'.fastq' > /dev/null
 echo $readlistfile'.fastq'
@@ -19,9 +19,8 @@ else
     exit
 fi
 
-java -Xmx128000M -cp "${BINDIR}" PB_FilterContainedReads $READS_FILE w1=$W1 k1=$K1 w2=$W2 k2=$K2 ct=$CT
 ofn=`java -cp "${BINDIR}" PB_FilterContainedReads $READS_FILE w1=$W1 k1=$K1 w2=$W2 k2=$K2 ct=$CT fnonly`
-java -cp "${BINDIR}" ExtractReads $ofn $READS_FILE
+java -Xmx128000M -cp "${BINDIR}" PB_FilterContainedReads $READS_FILE w1=$W1 k1=$K1 w2=$W2 k2=$K2 ct=$CT emit=$ofn'.fastq'
 
 NEW_READS_FILE=$ofn'.fastq'
 echo $NEW_READS_FILE
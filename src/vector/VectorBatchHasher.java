@@ -0,0 +1,81 @@
+/*
+ * Hashes kmers with the minimizer mixing function a full vector of lanes at a time
+ *
+ * This needs the incubating jdk.incubator.vector module, so it is kept apart from the rest of the
+ * sources and compiled separately (see BatchHasher).  Arithmetic right shifts (ASHR) match the
+ * >> of the scalar code, so every hash is identical to BatchHasher.mix.
+ */
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+public class VectorBatchHasher implements BatchHasher {
+
+	static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	public void hash(long[] kmers, long[] hashes, int n, long mask)
+	{
+		hash(SPECIES, kmers, hashes, n, mask);
+	}
+
+	public String toString()
+	{
+		return describe(SPECIES);
+	}
+
+	/*
+	 * A hasher using vectors of the given number of bits (64, 128, 256, or 512), for benchmarking
+	 * each shape.  The species has to be a constant where the loop is compiled for the vector
+	 * operations to be intrinsified, so each shape gets its own class.
+	 */
+	public static BatchHasher withBits(int bits)
+	{
+		switch(bits)
+		{
+			case 64: return new BatchHasher() {
+				public void hash(long[] kmers, long[] hashes, int n, long mask) { VectorBatchHasher.hash(LongVector.SPECIES_64, kmers, hashes, n, mask); }
+				public String toString() { return describe(LongVector.SPECIES_64); }
+			};
+			case 128: return new BatchHasher() {
+				public void hash(long[] kmers, long[] hashes, int n, long mask) { VectorBatchHasher.hash(LongVector.SPECIES_128, kmers, hashes, n, mask); }
+				public String toString() { return describe(LongVector.SPECIES_128); }
+			};
+			case 256: return new BatchHasher() {
+				public void hash(long[] kmers, long[] hashes, int n, long mask) { VectorBatchHasher.hash(LongVector.SPECIES_256, kmers, hashes, n, mask); }
+				public String toString() { return describe(LongVector.SPECIES_256); }
+			};
+			case 512: return new BatchHasher() {
+				public void hash(long[] kmers, long[] hashes, int n, long mask) { VectorBatchHasher.hash(LongVector.SPECIES_512, kmers, hashes, n, mask); }
+				public String toString() { return describe(LongVector.SPECIES_512); }
+			};
+		}
+		throw new IllegalArgumentException("Unsupported vector size: " + bits);
+	}
+
+	static String describe(VectorSpecies<Long> species)
+	{
+		return "VectorBatchHasher(" + species.vectorBitSize() + " bits, " + species.length() + " lanes"
+			+ (species.equals(LongVector.SPECIES_PREFERRED) ? ", preferred" : "") + ")";
+	}
+
+	static void hash(VectorSpecies<Long> species, long[] kmers, long[] hashes, int n, long mask)
+	{
+		int i = 0;
+		int bound = species.loopBound(n);
+		for(; i<bound; i += species.length())
+		{
+			LongVector val = LongVector.fromArray(species, kmers, i);
+			LongVector x = val.not().add(val.lanewise(VectorOperators.LSHL, 21));
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.ASHR, 24));
+			x = x.add(x.lanewise(VectorOperators.LSHL, 3)).add(x.lanewise(VectorOperators.LSHL, 8));
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.ASHR, 14));
+			x = x.add(x.lanewise(VectorOperators.LSHL, 2)).add(x.lanewise(VectorOperators.LSHL, 4));
+			x = x.lanewise(VectorOperators.XOR, x.lanewise(VectorOperators.ASHR, 28));
+			x = x.add(x.lanewise(VectorOperators.LSHL, 31));
+			x.and(mask).intoArray(hashes, i);
+		}
+		for(; i<n; i++)
+		{
+			hashes[i] = BatchHasher.mix(kmers[i]) & mask;
+		}
+	}
+}